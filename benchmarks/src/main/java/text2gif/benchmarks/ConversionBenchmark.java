@@ -0,0 +1,74 @@
+package text2gif.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import text2gif.ConversionOptions;
+import text2gif.GifSequenceWriter;
+import text2gif.GifWriterUtil;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end conversion by GifWriterUtil.writeString and GifWriterUtil.writeFile
+ * (reading, rendering, encoding and writing, output is counted and discarded).
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ConversionBenchmark {
+    @Param({"ASCII_LOG", "CYRILLIC", "EMOJI_CHAT", "CODE"})
+    public Corpus corpus;
+    @Param({"IMAGEIO", "NATIVE"})
+    public GifSequenceWriter.Backend backend;
+    @Param({"500"})
+    public int length;
+
+    private String text;
+    private Path file;
+    private ConversionOptions options;
+
+    @Setup
+    public void setUp() throws IOException {
+        text = corpus.text(length);
+        file = Files.createTempFile("text2gif-" + corpus, ".txt");
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+        options = new ConversionOptions().setBackend(backend);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void writeString(OutputCounters counters) throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        GifWriterUtil.writeString(text, out, options);
+        counters.add(out.getCount(), text.length());
+    }
+
+    @Benchmark
+    public void writeFile(OutputCounters counters) throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        GifWriterUtil.writeFile(file.toString(), out, options);
+        counters.add(out.getCount(), text.length());
+    }
+}
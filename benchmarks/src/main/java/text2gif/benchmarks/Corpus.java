@@ -0,0 +1,104 @@
+package text2gif.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Representative texts for benchmarks. Texts are generated from fixed seed,
+ * so every run converts exactly the same characters.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+public enum Corpus {
+    /**
+     * Application log lines: ASCII, digits, many repeated letters.
+     */
+    ASCII_LOG {
+        @Override
+        void append(StringBuilder builder, Random random) {
+            builder.append(String.format("2024-03-%02d %02d:%02d:%02d.%03d ", 1 + random.nextInt(28),
+                    random.nextInt(24), random.nextInt(60), random.nextInt(60), random.nextInt(1000)));
+            builder.append(pick(random, "INFO ", "DEBUG", "WARN ", "ERROR"));
+            builder.append(" [worker-").append(random.nextInt(16)).append("] ");
+            builder.append(pick(random, "Request served in ", "Cache miss for key ", "Retrying connection to ",
+                    "Flushed segment "));
+            builder.append(random.nextInt(100000)).append('\n');
+        }
+    },
+    /**
+     * Russian prose: two-byte UTF-8 letters with punctuation.
+     */
+    CYRILLIC {
+        @Override
+        void append(StringBuilder builder, Random random) {
+            builder.append(pick(random, "Все счастливые семьи похожи друг на друга, ",
+                    "каждая несчастливая семья несчастлива по-своему. ",
+                    "Всё смешалось в доме Облонских. ",
+                    "Жена узнала, что муж был в связи с бывшею в их доме француженкою-гувернанткой, ",
+                    "и объявила мужу, что не может жить с ним в одном доме.\n"));
+        }
+    },
+    /**
+     * Chat messages with emoji: surrogate pairs mixed with short ASCII words.
+     */
+    EMOJI_CHAT {
+        @Override
+        void append(StringBuilder builder, Random random) {
+            builder.append(pick(random, "ok ", "lol ", "see you ", "on my way ", "thanks! "));
+            int count = 1 + random.nextInt(3);
+            for (int i = 0; i < count; i++) {
+                builder.append(pick(random, "😀", "😂", "👍", "🎉",
+                        "❤️", "🚀"));
+            }
+            builder.append('\n');
+        }
+    },
+    /**
+     * Source code: long runs of indentation spaces and blank lines.
+     */
+    CODE {
+        @Override
+        void append(StringBuilder builder, Random random) {
+            int depth = 1 + random.nextInt(4);
+            for (int i = 0; i < depth * 4; i++) {
+                builder.append(' ');
+            }
+            builder.append(pick(random, "if (buffer.hasRemaining()) {", "return result;", "}",
+                    "int count = Math.min(len, remaining);", "for (int i = 0; i < n; i++) {"));
+            builder.append(random.nextInt(4) == 0 ? "\n\n" : "\n");
+        }
+    };
+
+    /**
+     * Seed of generator of all texts.
+     */
+    private static final long SEED = 20240301L;
+
+    /**
+     * Generates text of this corpus.
+     * @param length length of text in chars (surrogate pair at the end is never split)
+     * @return text
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public String text(int length) {
+        Random random = new Random(SEED);
+        StringBuilder builder = new StringBuilder(length + 128);
+        while (builder.length() < length) {
+            append(builder, random);
+        }
+        int end = length;
+        if (Character.isHighSurrogate(builder.charAt(end - 1))) {
+            end--;
+        }
+        return builder.substring(0, end);
+    }
+
+    /**
+     * Appends next piece of text.
+     * @param builder text
+     * @param random generator of choices
+     */
+    abstract void append(StringBuilder builder, Random random);
+
+    private static String pick(Random random, String... values) {
+        return values[random.nextInt(values.length)];
+    }
+}
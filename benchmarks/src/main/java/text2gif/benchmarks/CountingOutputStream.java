@@ -0,0 +1,25 @@
+package text2gif.benchmarks;
+
+import java.io.OutputStream;
+
+/**
+ * Output stream discarding bytes and counting them, so benchmarks measure conversion, not disk.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+final class CountingOutputStream extends OutputStream {
+    private long count;
+
+    @Override
+    public void write(int b) {
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        count += len;
+    }
+
+    long getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,82 @@
+package text2gif.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import text2gif.GifSequenceWriter;
+import text2gif.RenderContext;
+import text2gif.TextUtil;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of rendered letters by GifSequenceWriter.writeToSequence.
+ * Letters are rendered in setup, so only encoding is measured.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class EncodeBenchmark {
+    @Param({"ASCII_LOG", "CYRILLIC", "EMOJI_CHAT", "CODE"})
+    public Corpus corpus;
+    @Param({"IMAGEIO", "NATIVE"})
+    public GifSequenceWriter.Backend backend;
+    @Param({"200"})
+    public int length;
+
+    private BufferedImage[] frames;
+    private int[] codePoints;
+
+    @Setup
+    public void setUp() {
+        String text = corpus.text(length);
+        frames = TextUtil.getImagesFromString(text);
+        codePoints = text.codePoints().toArray();
+    }
+
+    /**
+     * Every frame is encoded.
+     */
+    @Benchmark
+    public void encode(OutputCounters counters) throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        try (GifSequenceWriter writer = createWriter(out)) {
+            for (BufferedImage frame : frames) {
+                writer.writeToSequence(frame);
+            }
+        }
+        counters.add(out.getCount(), length);
+    }
+
+    /**
+     * Frames are keyed by code point, so repeated letters reuse encoded frame.
+     */
+    @Benchmark
+    public void encodeKeyed(OutputCounters counters) throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        try (GifSequenceWriter writer = createWriter(out)) {
+            for (int i = 0; i < frames.length; i++) {
+                writer.writeToSequence(frames[i], codePoints[i]);
+            }
+        }
+        counters.add(out.getCount(), length);
+    }
+
+    private GifSequenceWriter createWriter(CountingOutputStream out) throws IOException {
+        return new GifSequenceWriter(out, RenderContext.DEFAULT.getImageTypeSpecifier(), 1000, false, backend);
+    }
+}
@@ -0,0 +1,36 @@
+package text2gif.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Secondary results of benchmarks writing GIF: output bytes and input chars per iteration.
+ * EVENTS counters are summed over threads, so only counts are reported: bytes per char is outputBytes / inputChars.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.EVENTS)
+public class OutputCounters {
+    public long outputBytes;
+    public long inputChars;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        outputBytes = 0;
+        inputChars = 0;
+    }
+
+    /**
+     * Adds result of one conversion.
+     * @param bytes size of GIF
+     * @param chars length of text
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    void add(long bytes, long chars) {
+        outputBytes += bytes;
+        inputChars += chars;
+    }
+}
@@ -0,0 +1,62 @@
+package text2gif.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import text2gif.GlyphCache;
+import text2gif.RenderContext;
+import text2gif.TextUtil;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering of letters by TextUtil.getImagesFromArray (RenderContext.paint for every code point
+ * if glyph cache is disabled).
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RenderBenchmark {
+    @Param({"ASCII_LOG", "CYRILLIC", "EMOJI_CHAT", "CODE"})
+    public Corpus corpus;
+    /**
+     * Capacity of glyph cache (0 paints every letter).
+     */
+    @Param({"0", "4096"})
+    public int cacheCapacity;
+    @Param({"1000"})
+    public int length;
+
+    private char[] text;
+
+    @Setup
+    public void setUp() {
+        text = corpus.text(length).toCharArray();
+        TextUtil.getGlyphCache().clear();
+        TextUtil.getGlyphCache().setCapacity(cacheCapacity);
+    }
+
+    @TearDown
+    public void tearDown() {
+        TextUtil.getGlyphCache().setCapacity(GlyphCache.DEFAULT_CAPACITY);
+    }
+
+    @Benchmark
+    public BufferedImage[] render() {
+        return TextUtil.getImagesFromArray(RenderContext.DEFAULT, text, 0, text.length);
+    }
+}
@@ -0,0 +1,211 @@
+package cli;
+
+import text2gif.FrameFormat;
+import text2gif.GlyphAtlas;
+import text2gif.RenderContext;
+import text2gif.RenderQuality;
+import text2gif.TextUtil;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Builds glyph atlas file for BatchConverter --atlas: letters of given ranges and of given text files
+ * are rendered once and stored, so conversions using atlas don't rasterize them. Atlas isn't checked against
+ * installed fonts when opened, so it must be rebuilt after fonts of its chain are installed or updated.
+ * Exit code is 0 on success, 1 if atlas can't be written and 2 on usage error.
+ */
+public class AtlasBuilder {
+    /**
+     * Letters stored by default: Basic Latin, Latin-1, Cyrillic and general punctuation
+     */
+    private static final String DEFAULT_RANGES = "0020-007E,00A0-00FF,0400-04FF,2010-2027";
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: java -cp text2gif.jar cli.AtlasBuilder -o <atlas> [options] [text file ...]",
+            "  -o <path>        atlas file to write",
+            "  --chars <r>      hexadecimal code point ranges, default is " + DEFAULT_RANGES,
+            "  --format <f>     frame format: ARGB, INDEXED, BINARY or MONO, default is MONO with --quality FAST",
+            "                   and INDEXED otherwise",
+            "  --quality <q>    render quality: FAST (no antialiasing), BALANCED or QUALITY, default is QUALITY",
+            "  --font <names>   font name or comma-separated fallback chain (letters missing in a font are taken",
+            "                   from the next one), default is " + TextUtil.FONT_NAME,
+            "  --size <n>       font size, default is " + TextUtil.FONT_SIZE,
+            "  text file        letters of file are stored too",
+            "Atlas keeps letters as rendered by fonts installed now: rebuild it after installing, removing or",
+            "updating fonts (a changed Java version is detected and the atlas is rejected).");
+
+    private Path atlasPath;
+    private String ranges = DEFAULT_RANGES;
+    private RenderContext context;
+    private final List<Path> texts = new ArrayList<>();
+    private final PrintStream out;
+    private final PrintStream err;
+
+    /**
+     * Creates builder printing to given streams
+     *
+     * @param out stream for reports
+     * @param err stream for errors
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public AtlasBuilder(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    /**
+     * Parses command line arguments
+     *
+     * @param args command line arguments
+     * @throws IllegalArgumentException if arguments are wrong
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void parse(String[] args) {
+        String fontName = TextUtil.FONT_NAME;
+        int fontSize = TextUtil.FONT_SIZE;
+        FrameFormat format = null;
+        RenderQuality quality = RenderQuality.QUALITY;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "-o":
+                    atlasPath = Paths.get(value(args, ++i, arg));
+                    break;
+                case "--chars":
+                    ranges = value(args, ++i, arg);
+                    break;
+                case "--format":
+                    try {
+                        format = FrameFormat.valueOf(value(args, ++i, arg).toUpperCase());
+                    } catch (IllegalArgumentException x) {
+                        throw new IllegalArgumentException("Unknown frame format: " + args[i]);
+                    }
+                    break;
+                case "--quality":
+                    try {
+                        quality = RenderQuality.valueOf(value(args, ++i, arg).toUpperCase());
+                    } catch (IllegalArgumentException x) {
+                        throw new IllegalArgumentException("Unknown render quality: " + args[i]);
+                    }
+                    break;
+                case "--font":
+                    fontName = value(args, ++i, arg);
+                    break;
+                case "--size":
+                    try {
+                        fontSize = Integer.parseInt(value(args, ++i, arg));
+                    } catch (NumberFormatException x) {
+                        fontSize = 0;
+                    }
+                    if (fontSize <= 0) {
+                        throw new IllegalArgumentException("Value of " + arg + " must be positive integer: "
+                                + args[i]);
+                    }
+                    break;
+                default:
+                    if (arg.startsWith("-")) {
+                        throw new IllegalArgumentException("Unknown option: " + arg);
+                    }
+                    texts.add(Paths.get(arg));
+            }
+        }
+        if (atlasPath == null) {
+            throw new IllegalArgumentException("No atlas file");
+        }
+        if (format == null) {
+            format = quality.getFormat();
+        }
+        context = new RenderContext(fontName, TextUtil.FONT_STYLE, fontSize, TextUtil.FOREGROUND,
+                TextUtil.BACKGROUND, format, quality);
+    }
+
+    private static String value(String[] args, int i, String option) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Missing value of " + option);
+        }
+        return args[i];
+    }
+
+    /**
+     * Collects code points of ranges and text files
+     *
+     * @return code points (may repeat)
+     * @throws IOException if text file can't be read
+     * @throws IllegalArgumentException if range is wrong
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private int[] collectCodePoints() throws IOException {
+        IntStream result = IntStream.empty();
+        for (String range : ranges.split(",")) {
+            if (range.isEmpty()) {
+                continue;
+            }
+            String[] bounds = range.split("-", 2);
+            try {
+                int first = Integer.parseInt(bounds[0].trim(), 16);
+                int last = bounds.length > 1 ? Integer.parseInt(bounds[1].trim(), 16) : first;
+                if (first > last || !Character.isValidCodePoint(last)) {
+                    throw new NumberFormatException();
+                }
+                result = IntStream.concat(result, IntStream.rangeClosed(first, last));
+            } catch (NumberFormatException x) {
+                throw new IllegalArgumentException("Wrong code point range: " + range);
+            }
+        }
+        for (Path text : texts) {
+            result = IntStream.concat(result,
+                    new String(Files.readAllBytes(text), StandardCharsets.UTF_8).codePoints().distinct());
+        }
+        return result.toArray();
+    }
+
+    /**
+     * Runs builder
+     *
+     * @param args command line arguments
+     * @return exit code
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public int execute(String[] args) {
+        int[] codePoints;
+        try {
+            parse(args);
+            codePoints = collectCodePoints();
+        } catch (IllegalArgumentException | IOException x) {
+            err.println(x.getMessage());
+            err.println(USAGE);
+            return 2;
+        }
+        try {
+            long start = System.nanoTime();
+            GlyphAtlas.build(context, codePoints, atlasPath);
+            GlyphAtlas atlas = GlyphAtlas.open(atlasPath);
+            out.printf("%s: %d letters, %dx%d frames, %d bytes in %.1f s%n", atlasPath, atlas.size(),
+                    atlas.getFrameSize(), atlas.getFrameSize(), Files.size(atlasPath),
+                    (System.nanoTime() - start) / 1e9);
+            return 0;
+        } catch (IOException x) {
+            err.println("Can't build atlas: " + x);
+            return 1;
+        }
+    }
+
+    /**
+     * Main function
+     *
+     * @param args command line arguments
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public static void main(String[] args) {
+        // No display is needed to render letters
+        System.setProperty("java.awt.headless", "true");
+        System.exit(new AtlasBuilder(System.out, System.err).execute(args));
+    }
+}
@@ -0,0 +1,544 @@
+package cli;
+
+import text2gif.ConversionOptions;
+import text2gif.ConversionStats;
+import text2gif.FrameFormat;
+import text2gif.GifSequenceWriter;
+import text2gif.GifWriterUtil;
+import text2gif.GlyphAtlas;
+import text2gif.JfrConversionListener;
+import text2gif.RenderContext;
+import text2gif.RenderQuality;
+import text2gif.Segmentation;
+import text2gif.TextUtil;
+import text2gif.WriteBehindOutputStream;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Headless batch converter: converts text files, directories, globs or standard input
+ * to GIF images on a bounded worker pool and reports per-job and total statistics.
+ * Exit code is 0 if all jobs succeeded, 1 if some jobs failed and 2 on usage error.
+ */
+public class BatchConverter {
+    /**
+     * Exit codes
+     */
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_FAILED = 1;
+    public static final int EXIT_USAGE = 2;
+    /**
+     * Input name of standard input
+     */
+    private static final String STDIN = "-";
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: java -cp text2gif.jar cli.BatchConverter [options] <file|directory|glob|-> ...",
+            "  -o <path>        output directory (or .gif file for single input), default is next to input",
+            "  -j <n>           number of worker threads, default is number of processors",
+            "  -e <ext>         extension of files taken from directories, default is txt",
+            "  --delay <ms>     time of showing one letter, default is 1000",
+            "  --loop           loop animation",
+            "  --format <f>     frame format: ARGB, INDEXED, BINARY or MONO, default is MONO with --quality FAST",
+            "                   and INDEXED otherwise",
+            "  --quality <q>    render quality: FAST (no antialiasing), BALANCED or QUALITY, default is QUALITY",
+            "  --font <names>   font name or comma-separated fallback chain (letters missing in a font are taken",
+            "                   from the next one), default is " + TextUtil.FONT_NAME,
+            "  --size <n>       font size, default is " + TextUtil.FONT_SIZE,
+            "  --atlas <file>   take letters from glyph atlas built by cli.AtlasBuilder with the same font settings",
+            "  --native         use built-in GIF encoder",
+            "  --delta          write only changed rectangles of frames (with --native)",
+            "  --no-collapse    write every letter as separate frame",
+            "  --segment <s>    frame per LETTER, WORD, LINE or FIXED number of letters, default is LETTER",
+            "  --segment-length <n>  maximum letters of frame (with --segment), default is "
+                    + ConversionOptions.DEFAULT_SEGMENT_LENGTH,
+            "  --write-behind <kb>  write output behind encoding from buffers of given size",
+            "  --buffers <n>    number of write-behind buffers, default is "
+                    + WriteBehindOutputStream.DEFAULT_BUFFER_COUNT,
+            "  --sync <s>       force output to disk: NONE, CLOSE or BUFFER (with --write-behind), default is NONE",
+            "  --jfr            emit Flight Recorder events (record with -XX:StartFlightRecording)",
+            "  -q               print only failures and summary",
+            "  -                read text from standard input");
+
+    /**
+     * One input file and its output
+     */
+    private static final class Job {
+        final Path input;
+        final Path output;
+
+        Job(Path input, Path output) {
+            this.input = input;
+            this.output = output;
+        }
+    }
+
+    /**
+     * Totals of finished jobs, updated by workers
+     */
+    private static final class Summary {
+        long succeeded;
+        long failed;
+        long chars;
+        long frames;
+        long bytes;
+        long busyNanos;
+
+        synchronized void success(ConversionStats stats, long size) {
+            succeeded++;
+            chars += stats.getChars();
+            frames += stats.getFrames();
+            bytes += size;
+            busyNanos += stats.getWallNanos();
+        }
+
+        synchronized void failure() {
+            failed++;
+        }
+    }
+
+    private ConversionOptions options = new ConversionOptions();
+    private Path outputPath;
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private String extension = "txt";
+    private boolean quiet;
+    private final List<String> inputs = new ArrayList<>();
+    private final PrintStream out;
+    private final PrintStream err;
+
+    /**
+     * Creates converter printing to given streams
+     *
+     * @param out stream for reports
+     * @param err stream for errors
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public BatchConverter(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    /**
+     * Parses command line arguments
+     *
+     * @param args command line arguments
+     * @throws IllegalArgumentException if arguments are wrong
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void parse(String[] args) {
+        String fontName = TextUtil.FONT_NAME;
+        int fontSize = TextUtil.FONT_SIZE;
+        FrameFormat format = null;
+        RenderQuality quality = RenderQuality.QUALITY;
+        Path atlasPath = null;
+        int writeBehindSize = 0;
+        int writeBehindCount = WriteBehindOutputStream.DEFAULT_BUFFER_COUNT;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "-o":
+                    outputPath = Paths.get(value(args, ++i, arg));
+                    break;
+                case "-j":
+                    workers = positive(value(args, ++i, arg), arg);
+                    break;
+                case "-e":
+                    extension = value(args, ++i, arg);
+                    break;
+                case "--delay":
+                    options.setFrameDelay(positive(value(args, ++i, arg), arg));
+                    break;
+                case "--loop":
+                    options.setLoopContinuously(true);
+                    break;
+                case "--format":
+                    try {
+                        format = FrameFormat.valueOf(value(args, ++i, arg).toUpperCase());
+                    } catch (IllegalArgumentException x) {
+                        throw new IllegalArgumentException("Unknown frame format: " + args[i]);
+                    }
+                    break;
+                case "--quality":
+                    try {
+                        quality = RenderQuality.valueOf(value(args, ++i, arg).toUpperCase());
+                    } catch (IllegalArgumentException x) {
+                        throw new IllegalArgumentException("Unknown render quality: " + args[i]);
+                    }
+                    break;
+                case "--font":
+                    fontName = value(args, ++i, arg);
+                    break;
+                case "--size":
+                    fontSize = positive(value(args, ++i, arg), arg);
+                    break;
+                case "--atlas":
+                    atlasPath = Paths.get(value(args, ++i, arg));
+                    break;
+                case "--native":
+                    options.setBackend(GifSequenceWriter.Backend.NATIVE);
+                    break;
+                case "--delta":
+                    options.setDeltaFrames(true);
+                    break;
+                case "--no-collapse":
+                    options.setCollapseRuns(false);
+                    break;
+                case "--segment":
+                    try {
+                        options.setSegmentation(Segmentation.valueOf(value(args, ++i, arg).toUpperCase()));
+                    } catch (IllegalArgumentException x) {
+                        throw new IllegalArgumentException("Unknown segmentation: " + args[i]);
+                    }
+                    break;
+                case "--segment-length":
+                    options.setSegmentLength(positive(value(args, ++i, arg), arg));
+                    break;
+                case "--write-behind":
+                    writeBehindSize = positive(value(args, ++i, arg), arg) << 10;
+                    break;
+                case "--buffers":
+                    writeBehindCount = positive(value(args, ++i, arg), arg);
+                    if (writeBehindCount < 2) {
+                        throw new IllegalArgumentException("Value of " + arg + " must be at least 2");
+                    }
+                    break;
+                case "--sync":
+                    try {
+                        options.setSync(WriteBehindOutputStream.Sync.valueOf(value(args, ++i, arg).toUpperCase()));
+                    } catch (IllegalArgumentException x) {
+                        throw new IllegalArgumentException("Unknown sync policy: " + args[i]);
+                    }
+                    break;
+                case "--jfr":
+                    options.setListener(JfrConversionListener.INSTANCE);
+                    break;
+                case "-q":
+                    quiet = true;
+                    break;
+                default:
+                    if (arg.startsWith("-") && !arg.equals(STDIN)) {
+                        throw new IllegalArgumentException("Unknown option: " + arg);
+                    }
+                    inputs.add(arg);
+            }
+        }
+        if (inputs.isEmpty()) {
+            throw new IllegalArgumentException("No inputs");
+        }
+        options.setWriteBehind(writeBehindSize, writeBehindCount);
+        if (format == null) {
+            format = quality.getFormat();
+        }
+        RenderContext context = new RenderContext(fontName, TextUtil.FONT_STYLE, fontSize,
+                TextUtil.FOREGROUND, TextUtil.BACKGROUND, format, quality);
+        if (atlasPath != null) {
+            context = atlasContext(atlasPath, context);
+        }
+        // Every worker converts its own file
+        options.setRenderContext(context)
+                .setPipelined(false);
+    }
+
+    /**
+     * Opens glyph atlas built for render settings
+     *
+     * @param path atlas file
+     * @param context render settings
+     * @return context taking letters from atlas
+     * @throws IllegalArgumentException if atlas can't be opened or was built with other settings
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private static RenderContext atlasContext(Path path, RenderContext context) {
+        GlyphAtlas atlas;
+        try {
+            atlas = GlyphAtlas.open(path);
+        } catch (IOException x) {
+            throw new IllegalArgumentException(x.getMessage());
+        }
+        if (!atlas.matches(context)) {
+            throw new IllegalArgumentException(String.format("Glyph atlas %s was built for font %s, size %d, " +
+                    "format %s, quality %s", path, atlas.getFontName(), atlas.getFontSize(), atlas.getFormat(),
+                    atlas.getQuality()));
+        }
+        return atlas.getContext();
+    }
+
+    private static String value(String[] args, int i, String option) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Missing value of " + option);
+        }
+        return args[i];
+    }
+
+    private static int positive(String value, String option) {
+        try {
+            int result = Integer.parseInt(value);
+            if (result > 0) {
+                return result;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("Value of " + option + " must be positive integer: " + value);
+    }
+
+    /**
+     * Expands inputs into jobs. GIF files found in directories and by globs are skipped
+     * (they are outputs of previous runs), the same file given twice is converted once.
+     *
+     * @return jobs
+     * @throws IOException if directory can't be read
+     * @throws IllegalArgumentException if input doesn't exist, standard input is given twice
+     *                                  or two jobs would write the same file or overwrite an input
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private List<Job> collectJobs() throws IOException {
+        List<Job> jobs = new ArrayList<>();
+        boolean single = inputs.size() == 1 && outputPath != null && outputPath.toString().endsWith(".gif");
+        for (String input : inputs) {
+            if (input.equals(STDIN)) {
+                if (inputs.indexOf(STDIN) != inputs.lastIndexOf(STDIN)) {
+                    throw new IllegalArgumentException("Standard input can be read only once");
+                }
+                jobs.add(new Job(null, single ? outputPath : output(null, Paths.get("stdin.txt"))));
+            } else if (isGlob(input)) {
+                // Walk from directory before first glob character
+                Path base = globBase(input);
+                PathMatcher matcher = base.getFileSystem().getPathMatcher("glob:" + input);
+                try (Stream<Path> files = Files.walk(base)) {
+                    files.filter(Files::isRegularFile)
+                            .filter(matcher::matches)
+                            .filter(file -> !isGif(file))
+                            .sorted()
+                            .forEach(file -> jobs.add(new Job(file, output(file, base.relativize(file)))));
+                }
+            } else {
+                Path path = Paths.get(input);
+                if (Files.isDirectory(path)) {
+                    // Take files with extension from directory tree
+                    try (Stream<Path> files = Files.walk(path)) {
+                        files.filter(Files::isRegularFile)
+                                .filter(file -> file.getFileName().toString().endsWith("." + extension))
+                                .filter(file -> !isGif(file))
+                                .sorted()
+                                .forEach(file -> jobs.add(new Job(file, output(file, path.relativize(file)))));
+                    }
+                } else if (Files.isRegularFile(path)) {
+                    jobs.add(new Job(path, single ? outputPath : output(path, path.getFileName())));
+                } else {
+                    throw new IllegalArgumentException("No such file or directory: " + input);
+                }
+            }
+        }
+        return checkJobs(jobs);
+    }
+
+    /**
+     * Drops repeated jobs and checks that every job writes its own file, which isn't an input
+     *
+     * @param jobs collected jobs
+     * @return jobs without repeated ones
+     * @throws IllegalArgumentException if two inputs have the same output or output is an input
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private static List<Job> checkJobs(List<Job> jobs) {
+        Map<Path, Job> byOutput = new HashMap<>();
+        Set<Path> inputFiles = new HashSet<>();
+        List<Job> result = new ArrayList<>();
+        for (Job job : jobs) {
+            Path input = job.input != null ? job.input.toAbsolutePath().normalize() : null;
+            Job other = byOutput.putIfAbsent(job.output.toAbsolutePath().normalize(), job);
+            if (other != null) {
+                if (input != null && other.input != null && input.equals(other.input.toAbsolutePath().normalize())) {
+                    // Same file matched twice
+                    continue;
+                }
+                throw new IllegalArgumentException(String.format("Inputs %s and %s have the same output %s",
+                        other.input != null ? other.input : STDIN, job.input != null ? job.input : STDIN,
+                        job.output));
+            }
+            if (input != null) {
+                inputFiles.add(input);
+            }
+            result.add(job);
+        }
+        for (Job job : result) {
+            if (inputFiles.contains(job.output.toAbsolutePath().normalize())) {
+                throw new IllegalArgumentException("Output " + job.output + " is also an input");
+            }
+        }
+        return result;
+    }
+
+    private static boolean isGif(Path file) {
+        return file.getFileName().toString().toLowerCase().endsWith(".gif");
+    }
+
+    /**
+     * Returns output path of input
+     *
+     * @param input input file (null for standard input)
+     * @param relative path of input relative to output directory
+     * @return output path with gif extension
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private Path output(Path input, Path relative) {
+        String name = relative.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        name = (dot > 0 ? name.substring(0, dot) : name) + ".gif";
+        if (outputPath != null) {
+            Path parent = relative.getParent();
+            return (parent != null ? outputPath.resolve(parent) : outputPath).resolve(name);
+        }
+        return input != null ? input.resolveSibling(name) : Paths.get(name);
+    }
+
+    private static boolean isGlob(String input) {
+        return input.indexOf('*') >= 0 || input.indexOf('?') >= 0
+                || input.indexOf('[') >= 0 || input.indexOf('{') >= 0;
+    }
+
+    /**
+     * Returns directory to search files matching glob in
+     *
+     * @param glob glob pattern
+     * @return directory before first glob character (empty path for working directory)
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private static Path globBase(String glob) {
+        int end = 0;
+        while (!isGlob(glob.substring(0, end + 1))) {
+            end++;
+        }
+        int separator = Math.max(glob.lastIndexOf('/', end), glob.lastIndexOf(File.separatorChar, end));
+        return Paths.get(separator < 0 ? "" : glob.substring(0, separator + 1));
+    }
+
+    /**
+     * Runs jobs on bounded worker pool and prints statistics
+     *
+     * @param jobs jobs to run
+     * @return exit code
+     * @throws InterruptedException if thread is interrupted
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private int run(List<Job> jobs) throws InterruptedException {
+        Summary summary = new Summary();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>());
+        // Jobs waiting in queue are limited, so thousands of inputs don't pile up
+        Semaphore slots = new Semaphore(workers * 2);
+        long start = System.nanoTime();
+        try {
+            for (Job job : jobs) {
+                slots.acquire();
+                pool.execute(() -> {
+                    try {
+                        convert(job, summary);
+                    } finally {
+                        slots.release();
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+        }
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        long wall = System.nanoTime() - start;
+        // Print totals
+        synchronized (summary) {
+            out.printf("%d succeeded, %d failed: %d chars, %d frames, %d bytes in %.1f s " +
+                            "(%.0f chars/s, %.0f frames/s, %.2f MB/s, %d workers, %.1fx concurrency)%n",
+                    summary.succeeded, summary.failed, summary.chars, summary.frames, summary.bytes, wall / 1e9,
+                    summary.chars / (wall / 1e9), summary.frames / (wall / 1e9), summary.bytes / 1e6 / (wall / 1e9),
+                    workers, (double) summary.busyNanos / wall);
+            return summary.failed == 0 ? EXIT_OK : EXIT_FAILED;
+        }
+    }
+
+    /**
+     * Converts one job and reports its result
+     *
+     * @param job job to convert
+     * @param summary totals to update
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void convert(Job job, Summary summary) {
+        String name = job.input != null ? job.input.toString() : "<stdin>";
+        try {
+            Path parent = job.output.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            ConversionStats stats;
+            if (job.input != null) {
+                stats = GifWriterUtil.writeFile(job.input.toString(), job.output.toString(), options);
+            } else {
+                stats = GifWriterUtil.writeReader(
+                        new InputStreamReader(System.in, StandardCharsets.UTF_8), job.output.toString(), options);
+            }
+            long size = Files.size(job.output);
+            summary.success(stats, size);
+            if (!quiet) {
+                synchronized (out) {
+                    out.printf("OK %s -> %s: %s, %d bytes, %.0f chars/s%n", name, job.output, stats, size,
+                            stats.getChars() / (stats.getWallNanos() / 1e9));
+                }
+            }
+        } catch (Exception x) {
+            summary.failure();
+            synchronized (err) {
+                err.printf("FAIL %s: %s%n", name, x);
+            }
+        }
+    }
+
+    /**
+     * Runs converter
+     *
+     * @param args command line arguments
+     * @return exit code
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public int execute(String[] args) {
+        List<Job> jobs;
+        try {
+            parse(args);
+            jobs = collectJobs();
+        } catch (IllegalArgumentException | IOException x) {
+            err.println(x.getMessage());
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        try {
+            return run(jobs);
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            err.println("Interrupted");
+            return EXIT_FAILED;
+        }
+    }
+
+    /**
+     * Main function
+     *
+     * @param args command line arguments
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public static void main(String[] args) {
+        // No display is needed to render letters
+        System.setProperty("java.awt.headless", "true");
+        System.exit(new BatchConverter(System.out, System.err).execute(args));
+    }
+}
@@ -0,0 +1,138 @@
+package gui;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Text file too large for text area, split into pages loaded on demand. Pages start after a line break
+ * near every PAGE_SIZE bytes (or at the start of a UTF-8 char if there's no line break nearby), so
+ * page index is built by a few reads instead of decoding the whole file and a page decodes on its own.
+ * Charset must encode line break as single byte '\n' (UTF-8, ASCII, single byte charsets).
+ */
+class FilePager {
+    /**
+     * Approximate size of page in bytes
+     */
+    static final int PAGE_SIZE = 1 << 18;
+    /**
+     * Number of bytes searched for line break after page boundary
+     */
+    private static final int SEARCH_SIZE = 1 << 12;
+
+    private final Path path;
+    private final Charset charset;
+    private final long size;
+    /**
+     * Start offsets of pages in bytes and size of file at the end
+     */
+    private final long[] starts;
+
+    /**
+     * Builds index of pages of file
+     *
+     * @param path text file
+     * @param charset charset of file
+     * @throws IOException if file can't be read
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    FilePager(Path path, Charset charset) throws IOException {
+        this.path = path;
+        this.charset = charset;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            size = channel.size();
+            long[] offsets = new long[(int) (size / PAGE_SIZE) + 2];
+            int count = 1;
+            ByteBuffer buffer = ByteBuffer.allocate(SEARCH_SIZE);
+            for (long boundary = PAGE_SIZE; boundary < size; boundary += PAGE_SIZE) {
+                long start = pageStart(channel, boundary, buffer);
+                if (start > offsets[count - 1] && start < size) {
+                    offsets[count++] = start;
+                }
+            }
+            offsets[count] = size;
+            starts = Arrays.copyOf(offsets, count + 1);
+        }
+    }
+
+    /**
+     * Finds start of page near boundary: after the first line break, or the first byte starting UTF-8 char
+     *
+     * @param channel file
+     * @param boundary offset in bytes
+     * @param buffer buffer for read bytes
+     * @return start of page
+     * @throws IOException if file can't be read
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private static long pageStart(FileChannel channel, long boundary, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining() && channel.read(buffer, boundary + buffer.position()) > 0) {
+            // Read whole window
+        }
+        buffer.flip();
+        for (int i = 0; i < buffer.limit(); i++) {
+            if (buffer.get(i) == '\n') {
+                return boundary + i + 1;
+            }
+        }
+        // No line break: skip continuation bytes of UTF-8 char
+        for (int i = 0; i < buffer.limit(); i++) {
+            if ((buffer.get(i) & 0xC0) != 0x80) {
+                return boundary + i;
+            }
+        }
+        return boundary + buffer.limit();
+    }
+
+    /**
+     * Reads and decodes page
+     *
+     * @param page number of page
+     * @return text of page
+     * @throws IOException if file can't be read
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    String readPage(int page) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (starts[page + 1] - starts[page]));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining() && channel.read(buffer, starts[page] + buffer.position()) > 0) {
+                // Read whole page
+            }
+        }
+        buffer.flip();
+        return charset.decode(buffer).toString();
+    }
+
+    /**
+     * @return number of pages
+     */
+    int getPageCount() {
+        return starts.length - 1;
+    }
+
+    /**
+     * @return text file
+     */
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return charset of file
+     */
+    Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * @return size of file in bytes
+     */
+    long getSize() {
+        return size;
+    }
+}
@@ -1,18 +1,33 @@
 package gui;
 
+import text2gif.ConversionOptions;
+import text2gif.ConversionStats;
 import text2gif.GifWriterUtil;
+import text2gif.GifSequenceWriter;
+import text2gif.IncrementalConversion;
 
 import javax.swing.*;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import javax.swing.filechooser.FileNameExtensionFilter;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+import java.awt.BorderLayout;
+import java.awt.Dimension;
 import java.awt.event.ActionEvent;
+import java.awt.event.InputEvent;
 import java.awt.event.KeyEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.*;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
 
 /**
  * Main dialog form class
@@ -22,6 +37,30 @@ public class MainDialog extends JDialog {
      * Read and write buffer
      */
     private static final int BUFFER_SIZE = 1024;
+    /**
+     * Time after last edit before preview is updated in milliseconds
+     */
+    private static final int PREVIEW_DELAY = 300;
+    /**
+     * Number of chars before caret shown in preview
+     */
+    private static final int PREVIEW_CHARS = 32;
+    /**
+     * Number of chars read from document at once while frames are updated
+     */
+    private static final int CHUNK_SIZE = 1 << 16;
+    /**
+     * Size of output buffer
+     */
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+    /**
+     * Files larger than this size in bytes are opened page by page
+     */
+    private static final long LARGE_FILE_SIZE = 16 << 20;
+    /**
+     * Minimum time between progress reports in nanoseconds
+     */
+    private static final long PROGRESS_INTERVAL = 100000000;
     /**
      * Is true when file is saved
      */
@@ -45,6 +84,40 @@ public class MainDialog extends JDialog {
     private JScrollPane scroll;
     private JLabel statusLabel;
     JMenuBar menuBar;
+    private JMenu fileMenu;
+    private JMenu pageMenu;
+    /**
+     * Large file shown page by page (null if whole text is in text area)
+     */
+    private FilePager pager;
+    /**
+     * Number of shown page
+     */
+    private int page;
+    /**
+     * Conversion settings
+     */
+    private final ConversionOptions options = new ConversionOptions().setBackend(GifSequenceWriter.Backend.NATIVE);
+    /**
+     * Encoded frames of text, updated after edits
+     */
+    private final IncrementalConversion frames = new IncrementalConversion(options);
+    /**
+     * Animated preview of text before caret
+     */
+    private final JLabel preview = new JLabel();
+    /**
+     * Timer starting preview update when editing pauses
+     */
+    private final Timer previewTimer = new Timer(PREVIEW_DELAY, this::onPreview);
+    /**
+     * Running preview update
+     */
+    private SwingWorker<byte[], Void> previewWorker;
+    /**
+     * Running conversion (null if there's none)
+     */
+    private ConversionWorker conversion;
 
     /**
      * Main dialog constructor
@@ -57,8 +130,14 @@ public class MainDialog extends JDialog {
         filePath = null;
         // Do nothing at close
         setDefaultCloseOperation(DO_NOTHING_ON_CLOSE);
-        // Set content pane
-        setContentPane(contentPane);
+        // Set content pane with preview on the right
+        JPanel root = new JPanel(new BorderLayout());
+        root.add(contentPane, BorderLayout.CENTER);
+        preview.setHorizontalAlignment(SwingConstants.CENTER);
+        preview.setBorder(BorderFactory.createTitledBorder("Preview"));
+        preview.setPreferredSize(new Dimension(160, 0));
+        root.add(preview, BorderLayout.EAST);
+        setContentPane(root);
         // Create window modal
         setModal(true);
         // Set default button
@@ -73,16 +152,21 @@ public class MainDialog extends JDialog {
             }
         });
         // Add text changed document listener: if something changes, isChanged is setting to false
+        // and frames of changed text are invalidated
         text.getDocument().addDocumentListener(new DocumentListener() {
 
             @Override
             public void removeUpdate(DocumentEvent e) {
                 isSaved = false;
+                frames.invalidate(e.getOffset(), e.getLength(), 0);
+                previewTimer.restart();
             }
 
             @Override
             public void insertUpdate(DocumentEvent e) {
                 isSaved = false;
+                frames.invalidate(e.getOffset(), 0, e.getLength());
+                previewTimer.restart();
             }
 
             @Override
@@ -91,6 +175,10 @@ public class MainDialog extends JDialog {
             }
         });
 
+        // Update preview when editing pauses or caret moves
+        previewTimer.setRepeats(false);
+        text.addCaretListener(e -> previewTimer.restart());
+
         // Call onCancel() on escape
         contentPane.registerKeyboardAction(this::onExit, KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0),
                 JComponent.WHEN_ANCESTOR_OF_FOCUSED_COMPONENT);
@@ -118,7 +206,6 @@ public class MainDialog extends JDialog {
      * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
      */
     private void createMenu() {
-        JMenu fileMenu;
         //Create the menu bar
         menuBar = new JMenuBar();
 
@@ -166,6 +253,7 @@ public class MainDialog extends JDialog {
                 KeyEvent.VK_C);
         convertItem.getAccessibleContext().setAccessibleDescription(
                 "Convert file");
+        convertItem.addActionListener(this::onConvert);
         fileMenu.add(convertItem);
 
         // Exit menu item
@@ -176,36 +264,190 @@ public class MainDialog extends JDialog {
         exitItem.addActionListener(this::onExit);
         fileMenu.add(exitItem);
 
+        // Page menu, enabled for large files
+        pageMenu = new JMenu("Page");
+        pageMenu.setMnemonic(KeyEvent.VK_P);
+        pageMenu.getAccessibleContext().setAccessibleDescription(
+                "Browse pages of large file");
+        pageMenu.setEnabled(false);
+        menuBar.add(pageMenu);
+
+        // Previous page menu item
+        JMenuItem previousItem = new JMenuItem("Previous page",
+                KeyEvent.VK_R);
+        previousItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_PAGE_UP, InputEvent.CTRL_DOWN_MASK));
+        previousItem.addActionListener(e -> showPage(page - 1));
+        pageMenu.add(previousItem);
+
+        // Next page menu item
+        JMenuItem nextItem = new JMenuItem("Next page",
+                KeyEvent.VK_N);
+        nextItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_PAGE_DOWN, InputEvent.CTRL_DOWN_MASK));
+        nextItem.addActionListener(e -> showPage(page + 1));
+        pageMenu.add(nextItem);
+
         // Set menu bar
         setJMenuBar(menuBar);
     }
 
     /**
-     * Converting event handler
+     * Converting event handler: starts conversion in background or cancels running conversion
      *
      * @param e ActionEvent object
      * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
      */
     private void onConvert(ActionEvent e) {
-        try {
-            // Choose file to save
-            JFileChooser fileChooser = new JFileChooser();
-            fileChooser.setDialogTitle("Specify a file to save");
-            fileChooser.setFileFilter(new FileNameExtensionFilter("GIF images", "gif"));
-            int userSelection = fileChooser.showSaveDialog(this);
+        // Cancel running conversion
+        if (conversion != null) {
+            conversion.cancel(false);
+            return;
+        }
+        // Choose file to save
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Specify a file to save");
+        fileChooser.setFileFilter(new FileNameExtensionFilter("GIF images", "gif"));
+        int userSelection = fileChooser.showSaveDialog(this);
 
-            // If user chose file, convert
-            if (userSelection == JFileChooser.APPROVE_OPTION) {
-                // Convert file
-                String fileName = fileChooser.getSelectedFile().getPath();
-                GifWriterUtil.writeString(text.getText(), fileName);
-                statusLabel.setText("Converted");
-            }
-        } catch (Exception x) {
+        // If user chose file, convert
+        if (userSelection == JFileChooser.APPROVE_OPTION) {
+            // Text is read-only until conversion ends
+            text.setEditable(false);
+            fileMenu.setEnabled(false);
+            pageMenu.setEnabled(false);
+            buttonConvert.setText("Cancel");
+            conversion = new ConversionWorker(fileChooser.getSelectedFile().toPath(), pager);
+            conversion.execute();
+        }
+    }
+
+    /**
+     * Ends conversion: enables editing and reports result
+     *
+     * @param worker finished conversion
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void onConverted(ConversionWorker worker) {
+        conversion = null;
+        text.setEditable(pager == null);
+        fileMenu.setEnabled(true);
+        pageMenu.setEnabled(pager != null);
+        buttonConvert.setText("Convert");
+        if (worker.failure != null) {
+            statusLabel.setText("Conversion failed");
             // If something wrong, show error message
-            JOptionPane.showMessageDialog(this, String.format("Unknown exception: %s%n", x),
+            JOptionPane.showMessageDialog(this, String.format("Unknown exception: %s%n", worker.failure),
                     "Error", JOptionPane.ERROR_MESSAGE);
+        } else if (worker.isCancelled()) {
+            statusLabel.setText("Conversion cancelled");
+        } else {
+            statusLabel.setText(String.format("Converted %d frames, %.1f MB in %d ms", worker.frameCount,
+                    worker.written / 1e6, (System.nanoTime() - worker.start) / 1000000));
+        }
+    }
+
+    /**
+     * Encodes frames of text changed after last update. Document is copied by chunks under its read lock
+     * and encoded after the lock is released, so text can be edited meanwhile (stale chunk is rejected
+     * by its version and changed range is read again then).
+     *
+     * @param cancelled returns true if update must stop
+     * @param progress receives number of chars left to update after every chunk
+     * @return true if frames are updated, false if cancelled
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private boolean updateFrames(BooleanSupplier cancelled, IntConsumer progress) {
+        Document document = text.getDocument();
+        Segment segment = new Segment();
+        // Chunk read under lock: version, start and number of chars left after it
+        int[] chunk = new int[3];
+        String[] chunkText = new String[1];
+        while (!cancelled.getAsBoolean()) {
+            document.render(() -> {
+                // Hole and text are consistent under read lock: document listener runs under write lock
+                int version = frames.getVersion();
+                int start = frames.getHoleStart();
+                int hole = frames.getHoleEnd() - start;
+                try {
+                    document.getText(start, Math.min(hole, CHUNK_SIZE), segment);
+                } catch (BadLocationException x) {
+                    throw new IllegalStateException(x);
+                }
+                // Don't split surrogate pair between chunks
+                if (segment.count < hole && segment.count > 1 && Character.isHighSurrogate(segment.last())) {
+                    segment.count--;
+                }
+                chunk[0] = version;
+                chunk[1] = start;
+                chunk[2] = hole - segment.count;
+                chunkText[0] = segment.toString();
+            });
+            // Encode without blocking edits, chunk of changed text is rejected
+            if (!frames.update(chunk[1], chunkText[0], chunk[0])) {
+                continue;
+            }
+            if (chunk[2] == 0) {
+                return true;
+            }
+            progress.accept(chunk[2]);
+        }
+        return false;
+    }
+
+    /**
+     * Preview timer event handler: encodes changed frames in background and shows text before caret
+     *
+     * @param e ActionEvent object
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void onPreview(ActionEvent e) {
+        // Wait for running update
+        if (previewWorker != null && !previewWorker.isDone()) {
+            previewTimer.restart();
+            return;
         }
+        int to = text.getCaretPosition();
+        int from = Math.max(to - PREVIEW_CHARS, 0);
+        previewWorker = new SwingWorker<byte[], Void>() {
+            @Override
+            protected byte[] doInBackground() throws Exception {
+                if (!updateFrames(this::isCancelled, left -> { })) {
+                    return null;
+                }
+                if (from == to) {
+                    return new byte[0];
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                frames.write(out, from, to);
+                return out.toByteArray();
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    byte[] image = get();
+                    if (image != null) {
+                        showPreview(image);
+                    }
+                } catch (Exception x) {
+                    // Edited while writing, next timer event updates preview
+                }
+            }
+        };
+        previewWorker.execute();
+    }
+
+    /**
+     * Shows animated GIF in preview
+     *
+     * @param image GIF bytes
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void showPreview(byte[] image) {
+        Icon icon = preview.getIcon();
+        if (icon instanceof ImageIcon) {
+            ((ImageIcon) icon).getImage().flush();
+        }
+        preview.setIcon(image.length > 0 ? new ImageIcon(image) : null);
     }
 
     /**
@@ -215,6 +457,10 @@ public class MainDialog extends JDialog {
      * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
      */
     private void onCancel(WindowEvent e) {
+        // Stop running conversion
+        if (conversion != null) {
+            conversion.cancel(false);
+        }
         // Suggest to save file
         if (!isSaved) {
             switch (showUnsavedWarning()) {
@@ -263,6 +509,7 @@ public class MainDialog extends JDialog {
             }
         }
         // Clear
+        closePager();
         isSaved = false;
         text.setText("");
     }
@@ -300,20 +547,29 @@ public class MainDialog extends JDialog {
 
         // If file chosen, show it
         if (userSelection == JFileChooser.APPROVE_OPTION) {
-            // Clear
-            text.setText("");
-            // Read file
-            try (InputStream in = Files.newInputStream(fileChooser.getSelectedFile().toPath());
-                 BufferedReader reader = new BufferedReader(new InputStreamReader(in))) {
-                // Reading buffer
-                char[] buffer = new char[BUFFER_SIZE];
-                // Read first chunk
-                int read = reader.read(buffer, 0, BUFFER_SIZE);
-                do {
-                    // Add text to window
-                    text.append(new String(buffer, 0, read));
-                    // Read new chunk
-                } while ((read = reader.read(buffer, 0, BUFFER_SIZE)) == BUFFER_SIZE);
+            Path path = fileChooser.getSelectedFile().toPath();
+            try {
+                closePager();
+                if (Files.size(path) > LARGE_FILE_SIZE) {
+                    // Show large file page by page
+                    pager = new FilePager(path, Charset.defaultCharset());
+                    pageMenu.setEnabled(true);
+                    showPage(0);
+                    return;
+                }
+                // Read whole file and show it at once: one document event and one layout
+                StringBuilder builder = new StringBuilder((int) Files.size(path));
+                try (BufferedReader reader = Files.newBufferedReader(path, Charset.defaultCharset())) {
+                    // Reading buffer
+                    char[] buffer = new char[BUFFER_SIZE];
+                    int read;
+                    // Read chunks until end of file
+                    while ((read = reader.read(buffer, 0, BUFFER_SIZE)) != -1) {
+                        builder.append(buffer, 0, read);
+                    }
+                }
+                text.setText(builder.toString());
+                text.setCaretPosition(0);
                 // Set file unchanged
                 isSaved = true;
             } catch (Exception x) {
@@ -324,6 +580,45 @@ public class MainDialog extends JDialog {
         }
     }
 
+    /**
+     * Shows page of large file, read-only
+     *
+     * @param number number of page (ignored if there's no such page)
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void showPage(int number) {
+        if (pager == null || number < 0 || number >= pager.getPageCount()) {
+            return;
+        }
+        try {
+            String content = pager.readPage(number);
+            page = number;
+            text.setEditable(false);
+            text.setText(content);
+            text.setCaretPosition(0);
+            // Page is part of file, nothing to save
+            isSaved = true;
+            setTitle(pager.getPath().getFileName().toString());
+            statusLabel.setText(String.format("Page %d of %d (read-only), Convert converts whole file", page + 1,
+                    pager.getPageCount()));
+        } catch (IOException x) {
+            // If something wrong, show error message
+            JOptionPane.showMessageDialog(this, String.format("Unknown exception: %s%n", x),
+                    "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Returns from page by page mode to editing
+     *
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void closePager() {
+        pager = null;
+        pageMenu.setEnabled(false);
+        text.setEditable(true);
+    }
+
     /**
      * Save file event handler
      *
@@ -383,6 +678,22 @@ public class MainDialog extends JDialog {
             }
         }
 
+        // Large file isn't in text area, copy it
+        if (pager != null) {
+            try {
+                if (!Files.isSameFile(pager.getPath(), filePath)) {
+                    Files.copy(pager.getPath(), filePath, StandardCopyOption.REPLACE_EXISTING);
+                }
+                setTitle(filePath.getFileName().toString());
+                return true;
+            } catch (Exception x) {
+                // If something wrong, show error message
+                JOptionPane.showMessageDialog(this, String.format("Unknown exception: %s%n", x),
+                        "Error", JOptionPane.ERROR_MESSAGE);
+                return false;
+            }
+        }
+
         // Write text to file
         try (OutputStream out = Files.newOutputStream(filePath);
              BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out))) {
@@ -428,4 +739,173 @@ public class MainDialog extends JDialog {
         dialog.setVisible(true);
         System.exit(0);
     }
+
+    /**
+     * Conversion running in background: encodes changed frames reading them from document
+     * and writes all frames to file, reporting progress and throughput to status label.
+     * Partially written file is deleted if conversion is cancelled or fails.
+     */
+    private class ConversionWorker extends SwingWorker<Void, String> {
+        private final Path path;
+        private final FilePager source;
+        private final long start = System.nanoTime();
+        private long reported;
+        private volatile long written;
+        private volatile long frameCount;
+        private volatile Exception failure;
+        /**
+         * Background work has started, so it reports the end itself
+         */
+        private volatile boolean started;
+        /**
+         * End is reported (accessed on event dispatch thread only)
+         */
+        private boolean finished;
+
+        /**
+         * Creates conversion
+         *
+         * @param path GIF file to write
+         * @param source large file to convert instead of text area (null to convert text area)
+         * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+         */
+        ConversionWorker(Path path, FilePager source) {
+            this.path = path;
+            this.source = source;
+        }
+
+        @Override
+        protected Void doInBackground() {
+            started = true;
+            try {
+                if (source != null) {
+                    convertFile();
+                    return null;
+                }
+                // Encode changed frames
+                long stageStart = System.nanoTime();
+                int total = frames.getHoleEnd() - frames.getHoleStart();
+                if (!updateFrames(this::isCancelled,
+                        left -> report("Encoding", total - left, total, stageStart, "chars"))) {
+                    return null;
+                }
+                // Write frames, cancelling by failing write
+                long size = frames.getBlockBytes();
+                long writeStart = System.nanoTime();
+                try (OutputStream out = new BufferedOutputStream(new FilterOutputStream(Files.newOutputStream(path)) {
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        if (isCancelled()) {
+                            throw new InterruptedIOException("Conversion cancelled");
+                        }
+                        out.write(b, off, len);
+                        written += len;
+                        report("Writing", written, size, writeStart, "B");
+                    }
+                }, OUTPUT_BUFFER_SIZE)) {
+                    frames.write(out);
+                }
+                frameCount = frames.getFrameCount();
+            } catch (Exception x) {
+                if (!isCancelled()) {
+                    failure = x;
+                }
+            } finally {
+                // Remove partial file
+                if (isCancelled() || failure != null) {
+                    try {
+                        Files.deleteIfExists(path);
+                    } catch (IOException ignored) {
+                        // Nothing else to do, result is reported as failed anyway
+                    }
+                }
+                // Report on event dispatch thread after all work is done (done is called at once on cancel)
+                SwingUtilities.invokeLater(this::finish);
+            }
+            return null;
+        }
+
+        @Override
+        protected void done() {
+            // Worker cancelled before it started never runs doInBackground
+            if (isCancelled() && !started) {
+                finish();
+            }
+        }
+
+        /**
+         * Reports end of conversion once, on event dispatch thread
+         *
+         * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+         */
+        private void finish() {
+            if (!finished) {
+                finished = true;
+                onConverted(this);
+            }
+        }
+
+        /**
+         * Converts large file streaming it from disk, cancelling by failing read
+         *
+         * @throws IOException if an I/O error occurs
+         * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+         */
+        private void convertFile() throws IOException {
+            long size = source.getSize();
+            try (InputStream in = new FilterInputStream(Files.newInputStream(source.getPath())) {
+                private long read;
+
+                @Override
+                public int read() throws IOException {
+                    byte[] b = new byte[1];
+                    return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (isCancelled()) {
+                        throw new InterruptedIOException("Conversion cancelled");
+                    }
+                    int count = super.read(b, off, len);
+                    if (count > 0) {
+                        read += count;
+                        report("Converting", read, size, start, "B");
+                    }
+                    return count;
+                }
+            }; Reader reader = new InputStreamReader(in, source.getCharset())) {
+                ConversionStats stats = GifWriterUtil.writeReader(reader, path.toString(), options);
+                written = stats.getBytes();
+                frameCount = stats.getFrames();
+            }
+        }
+
+        /**
+         * Publishes progress of stage, at most once per PROGRESS_INTERVAL
+         *
+         * @param stage name of stage
+         * @param done processed amount
+         * @param total total amount
+         * @param stageStart start time of stage
+         * @param unit unit of amount
+         * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+         */
+        private void report(String stage, long done, long total, long stageStart, String unit) {
+            long now = System.nanoTime();
+            if (now - reported < PROGRESS_INTERVAL) {
+                return;
+            }
+            reported = now;
+            publish(String.format("%s: %d%% (%.1f M%s/s)", stage, total > 0 ? Math.min(done * 100 / total, 100) : 0,
+                    done * 1e3 / Math.max(now - stageStart, 1), unit));
+        }
+
+        @Override
+        protected void process(List<String> chunks) {
+            if (conversion == this) {
+                statusLabel.setText(chunks.get(chunks.size() - 1));
+            }
+        }
+    }
 }
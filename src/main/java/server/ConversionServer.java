@@ -0,0 +1,608 @@
+package server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import text2gif.ConversionOptions;
+import text2gif.EncoderSessionPool;
+import text2gif.FrameFormat;
+import text2gif.GifSequenceWriter;
+import text2gif.GifWriterUtil;
+import text2gif.RenderContext;
+import text2gif.RenderQuality;
+import text2gif.ResultCache;
+import text2gif.Segmentation;
+import text2gif.TextUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embedded HTTP conversion service: POST text to /convert and get GIF bytes back.
+ * Conversions run on a bounded worker pool; when its queue is full, requests are rejected
+ * with 503 at once instead of waiting. Identical requests arriving while the same conversion
+ * is running share its result. GIF is built in memory, without temporary files. With result cache,
+ * repeated requests are answered from stored images without touching worker pool.
+ * Settings are taken from query: delay, loop, format, quality, size, backend, delta, segment, segment-length.
+ */
+public class ConversionServer {
+    /**
+     * Default settings
+     */
+    public static final int DEFAULT_PORT = 8080;
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+    public static final int DEFAULT_MAX_BODY = 1 << 20;
+    public static final int DEFAULT_CACHE_DISK_MB = 1024;
+    public static final int DEFAULT_MAX_FONT_SIZE = 256;
+    public static final int DEFAULT_MAX_SEGMENT_LENGTH = 256;
+    /**
+     * Number of threads reading requests (conversions run on worker pool)
+     */
+    private static final int HTTP_THREADS = 4;
+    /**
+     * Number of render settings kept for reuse
+     */
+    private static final int MAX_CONTEXTS = 32;
+
+    /**
+     * Key of request: text and its settings
+     */
+    private static final class RequestKey {
+        final String text;
+        final String settings;
+        final int hash;
+
+        RequestKey(String text, String settings) {
+            this.text = text;
+            this.settings = settings;
+            this.hash = 31 * text.hashCode() + settings.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RequestKey)) return false;
+            RequestKey key = (RequestKey) o;
+            return hash == key.hash && settings.equals(key.settings) && text.equals(key.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private final HttpServer server;
+    private final ThreadPoolExecutor workers;
+    private final ExecutorService httpThreads;
+    private final int maxBody;
+    /**
+     * Running conversions by request
+     */
+    private final ConcurrentHashMap<RequestKey, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+    /**
+     * Render settings by format and font size in access order (eldest entry is least recently used),
+     * shared by requests (and by their glyph cache entries)
+     */
+    private final LinkedHashMap<String, RenderContext> contexts = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * Counters
+     */
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong conversions = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    /**
+     * Cache of finished images (null if every request is converted)
+     */
+    private volatile ResultCache resultCache;
+    /**
+     * Font name or fallback chain of all requests
+     */
+    private volatile String fontName = TextUtil.FONT_NAME;
+    /**
+     * Limits of request settings
+     */
+    private volatile int maxFontSize = DEFAULT_MAX_FONT_SIZE;
+    private volatile int maxSegmentLength = DEFAULT_MAX_SEGMENT_LENGTH;
+
+    /**
+     * Creates server, call start to accept requests
+     *
+     * @param address address to listen on (port 0 chooses free port)
+     * @param workerCount number of conversion threads
+     * @param queueCapacity number of conversions waiting for worker, more are rejected
+     * @param maxBody maximum size of request text in bytes
+     * @throws IOException if server socket can't be opened
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public ConversionServer(InetSocketAddress address, int workerCount, int queueCapacity, int maxBody)
+            throws IOException {
+        this.maxBody = maxBody;
+        workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), daemonThreads("text2gif-worker"));
+        httpThreads = Executors.newFixedThreadPool(HTTP_THREADS, daemonThreads("text2gif-http"));
+        server = HttpServer.create(address, 0);
+        server.setExecutor(httpThreads);
+        server.createContext("/convert", this::convert);
+        server.createContext("/stats", this::stats);
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicLong count = new AtomicLong();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Starts accepting requests
+     *
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Sets cache of finished images, should be called before start
+     *
+     * @param resultCache cache (null disables caching)
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public void setResultCache(ResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Sets font of all requests, should be called before start
+     *
+     * @param fontName font name or comma-separated fallback chain of font names
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public void setFontName(String fontName) {
+        this.fontName = fontName;
+    }
+
+    /**
+     * Sets largest font size of request, should be called before start
+     *
+     * @param maxFontSize maximum font size, requests with larger one get 400
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public void setMaxFontSize(int maxFontSize) {
+        this.maxFontSize = maxFontSize;
+    }
+
+    /**
+     * Sets largest segment length of request, should be called before start
+     *
+     * @param maxSegmentLength maximum number of letters per segment, requests with more get 400
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public void setMaxSegmentLength(int maxSegmentLength) {
+        this.maxSegmentLength = maxSegmentLength;
+    }
+
+    /**
+     * Stops server, waiting at most given time for running exchanges
+     *
+     * @param delaySeconds maximum time to wait
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        workers.shutdownNow();
+        httpThreads.shutdownNow();
+    }
+
+    /**
+     * @return address server listens on
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Conversion handler: reads text, joins running conversion of the same request or starts new one
+     *
+     * @param exchange HTTP exchange
+     * @throws IOException if an I/O error occurs
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void convert(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Allow", "POST");
+            sendText(exchange, 405, "Use POST with text in body");
+            return;
+        }
+        String text = readBody(exchange);
+        if (text == null) {
+            sendText(exchange, 413, "Text is longer than " + maxBody + " bytes");
+            return;
+        }
+        ConversionOptions options;
+        String settings;
+        try {
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            options = createOptions(query);
+            settings = canonicalSettings(options);
+        } catch (IllegalArgumentException x) {
+            sendText(exchange, 400, x.getMessage());
+            return;
+        }
+        ResultCache cache = resultCache;
+        if (cache != null) {
+            byte[] cached = cache.get(ResultCache.key(text, options));
+            if (cached != null) {
+                respond(exchange, cached, null);
+                return;
+            }
+        }
+        RequestKey key = new RequestKey(text, settings);
+        // Join conversion of identical request or start new one
+        CompletableFuture<byte[]> created = new CompletableFuture<>();
+        CompletableFuture<byte[]> result = inFlight.putIfAbsent(key, created);
+        if (result == null) {
+            result = created;
+            try {
+                workers.execute(() -> run(key, options, created));
+            } catch (RejectedExecutionException x) {
+                // Queue is full: shed load
+                inFlight.remove(key, created);
+                created.completeExceptionally(x);
+            }
+        } else {
+            coalesced.incrementAndGet();
+        }
+        // Response is sent by thread completing conversion
+        result.whenComplete((bytes, x) -> respond(exchange, bytes, x));
+    }
+
+    /**
+     * Converts text on worker thread
+     *
+     * @param key request
+     * @param options conversion settings
+     * @param result future to complete
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void run(RequestKey key, ConversionOptions options, CompletableFuture<byte[]> result) {
+        try {
+            conversions.incrementAndGet();
+            byte[] bytes = GifWriterUtil.toByteArray(key.text, options);
+            ResultCache cache = resultCache;
+            if (cache != null) {
+                try {
+                    cache.put(ResultCache.key(key.text, options), bytes);
+                } catch (IOException ignored) {
+                    // Image is still sent, only its file isn't stored (failure is counted by cache)
+                }
+            }
+            // Later identical requests start new conversion
+            inFlight.remove(key, result);
+            result.complete(bytes);
+        } catch (Throwable x) {
+            inFlight.remove(key, result);
+            result.completeExceptionally(x);
+        }
+    }
+
+    /**
+     * Sends conversion result
+     *
+     * @param exchange HTTP exchange
+     * @param bytes GIF image (null if conversion failed)
+     * @param failure error of conversion
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void respond(HttpExchange exchange, byte[] bytes, Throwable failure) {
+        try {
+            if (failure instanceof RejectedExecutionException) {
+                rejected.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendText(exchange, 503, "Server is busy");
+            } else if (failure != null) {
+                failed.incrementAndGet();
+                sendText(exchange, 500, "Conversion failed: " + failure);
+            } else {
+                exchange.getResponseHeaders().set("Content-Type", "image/gif");
+                send(exchange, 200, bytes);
+            }
+        } catch (IOException ignored) {
+            // Client is gone
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Statistics handler
+     *
+     * @param exchange HTTP exchange
+     * @throws IOException if an I/O error occurs
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void stats(HttpExchange exchange) throws IOException {
+        ResultCache cache = resultCache;
+        EncoderSessionPool sessions = EncoderSessionPool.SHARED;
+        sendText(exchange, 200, String.format(
+                "requests %d%nconversions %d%ncoalesced %d%nrejected %d%nfailed %d%nactive %d%nqueued %d%n"
+                        + "encoder sessions created %d%nencoder sessions reused %d%n",
+                requests.get(), conversions.get(), coalesced.get(), rejected.get(), failed.get(),
+                workers.getActiveCount(), workers.getQueue().size(), sessions.getCreated(), sessions.getReused())
+                + (cache != null ? String.format("cache hits %d%ncache misses %d%ncache evictions %d%n"
+                                + "cache store failures %d%ncache memory bytes %d%ncache disk bytes %d%n",
+                        cache.getMemoryHits() + cache.getDiskHits(), cache.getMisses(),
+                        cache.getMemoryEvictions() + cache.getDiskEvictions(), cache.getStoreFailures(),
+                        cache.getMemoryBytes(), cache.getDiskBytes()) : ""));
+    }
+
+    /**
+     * Reads request body as UTF-8 text
+     *
+     * @param exchange HTTP exchange
+     * @return text or null if body is longer than maximum size
+     * @throws IOException if an I/O error occurs
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private String readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = exchange.getRequestBody()) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (body.size() + read > maxBody) {
+                    return null;
+                }
+                body.write(buffer, 0, read);
+            }
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Creates conversion settings of request
+     *
+     * @param query query parameters
+     * @return settings
+     * @throws IllegalArgumentException if parameter is wrong
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private ConversionOptions createOptions(Map<String, String> query) {
+        FrameFormat format = null;
+        RenderQuality quality = RenderQuality.QUALITY;
+        int size = TextUtil.FONT_SIZE;
+        ConversionOptions options = new ConversionOptions().setPipelined(false);
+        for (Map.Entry<String, String> parameter : query.entrySet()) {
+            String value = parameter.getValue();
+            switch (parameter.getKey()) {
+                case "delay":
+                    options.setFrameDelay(positive(parameter.getKey(), value));
+                    break;
+                case "loop":
+                    options.setLoopContinuously(Boolean.parseBoolean(value));
+                    break;
+                case "format":
+                    format = valueOf(FrameFormat.class, value);
+                    break;
+                case "quality":
+                    quality = valueOf(RenderQuality.class, value);
+                    break;
+                case "size":
+                    size = limited(parameter.getKey(), value, maxFontSize);
+                    break;
+                case "backend":
+                    options.setBackend(valueOf(GifSequenceWriter.Backend.class, value));
+                    break;
+                case "delta":
+                    options.setDeltaFrames(Boolean.parseBoolean(value));
+                    break;
+                case "segment":
+                    options.setSegmentation(valueOf(Segmentation.class, value));
+                    break;
+                case "segment-length":
+                    options.setSegmentLength(limited(parameter.getKey(), value, maxSegmentLength));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown parameter: " + parameter.getKey());
+            }
+        }
+        // Format suited to quality tier by default
+        FrameFormat contextFormat = format != null ? format : quality.getFormat();
+        options.setRenderContext(getContext(contextFormat, quality, size));
+        return options;
+    }
+
+    /**
+     * Returns render settings, reusing their fonts and glyph cache entries; least recently used settings
+     * are dropped when there are too many of them
+     *
+     * @param format frame format
+     * @param quality render quality
+     * @param size font size
+     * @return render settings
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private RenderContext getContext(FrameFormat format, RenderQuality quality, int size) {
+        String key = format + "/" + quality + "/" + size;
+        synchronized (contexts) {
+            RenderContext context = contexts.get(key);
+            if (context == null) {
+                context = new RenderContext(fontName, TextUtil.FONT_STYLE, size, TextUtil.FOREGROUND,
+                        TextUtil.BACKGROUND, format, quality);
+                contexts.put(key, context);
+                if (contexts.size() > MAX_CONTEXTS) {
+                    Iterator<RenderContext> eldest = contexts.values().iterator();
+                    eldest.next();
+                    eldest.remove();
+                }
+            }
+            return context;
+        }
+    }
+
+    private static String canonicalSettings(ConversionOptions options) {
+        RenderContext context = options.getRenderContext();
+        return options.getFrameDelay() + "/" + options.isLoopContinuously() + "/" + context.getFormat() + "/"
+                + context.getQuality() + "/" + context.getFontSize() + "/" + options.getBackend() + "/"
+                + options.isDeltaFrames() + "/" + options.getSegmentation() + "/" + options.getSegmentLength();
+    }
+
+    private static int positive(String name, String value) {
+        try {
+            int result = Integer.parseInt(value);
+            if (result > 0) {
+                return result;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException(name + " must be positive integer");
+    }
+
+    private static int limited(String name, String value, int max) {
+        int result = positive(name, value);
+        if (result > max) {
+            throw new IllegalArgumentException(name + " must not be greater than " + max);
+        }
+        return result;
+    }
+
+    private static <E extends Enum<E>> E valueOf(Class<E> type, String value) {
+        try {
+            return Enum.valueOf(type, value.toUpperCase());
+        } catch (IllegalArgumentException x) {
+            throw new IllegalArgumentException("Unknown " + type.getSimpleName() + ": " + value);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> result = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return result;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            try {
+                String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), "UTF-8");
+                String value = equals < 0 ? "true" : URLDecoder.decode(pair.substring(equals + 1), "UTF-8");
+                result.put(name, value);
+            } catch (IOException x) {
+                throw new IllegalArgumentException(x);
+            }
+        }
+        return result;
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        send(exchange, status, (text + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Main function
+     *
+     * @param args [-b host] [-p port] [-j workers] [-q queue capacity] [--max-body bytes] [--cache-mb megabytes]
+     *             [--cache-dir directory] [--cache-disk-mb megabytes] [--font names] [--max-size size]
+     *             [--max-segment-length letters]
+     * @throws IOException if server socket can't be opened
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public static void main(String[] args) throws IOException {
+        // No display is needed to render letters
+        System.setProperty("java.awt.headless", "true");
+        String host = "localhost";
+        int port = DEFAULT_PORT;
+        int workerCount = Runtime.getRuntime().availableProcessors();
+        int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+        int maxBody = DEFAULT_MAX_BODY;
+        int cacheMegabytes = 0;
+        String cacheDirectory = null;
+        int cacheDiskMegabytes = DEFAULT_CACHE_DISK_MB;
+        String fontName = TextUtil.FONT_NAME;
+        int maxFontSize = DEFAULT_MAX_FONT_SIZE;
+        int maxSegmentLength = DEFAULT_MAX_SEGMENT_LENGTH;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-b":
+                        host = args[++i];
+                        break;
+                    case "-p":
+                        port = Integer.parseInt(args[++i]);
+                        break;
+                    case "-j":
+                        workerCount = positive(args[i], args[++i]);
+                        break;
+                    case "-q":
+                        queueCapacity = positive(args[i], args[++i]);
+                        break;
+                    case "--max-body":
+                        maxBody = positive(args[i], args[++i]);
+                        break;
+                    case "--cache-mb":
+                        cacheMegabytes = positive(args[i], args[++i]);
+                        break;
+                    case "--cache-dir":
+                        cacheDirectory = args[++i];
+                        break;
+                    case "--cache-disk-mb":
+                        cacheDiskMegabytes = positive(args[i], args[++i]);
+                        break;
+                    case "--font":
+                        fontName = args[++i];
+                        break;
+                    case "--max-size":
+                        maxFontSize = positive(args[i], args[++i]);
+                        break;
+                    case "--max-segment-length":
+                        maxSegmentLength = positive(args[i], args[++i]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+            }
+        } catch (RuntimeException x) {
+            System.err.println(x.getMessage() != null ? x.getMessage() : "Missing option value");
+            System.err.println("Usage: java -cp text2gif.jar server.ConversionServer "
+                    + "[-b host] [-p port] [-j workers] [-q queue capacity] [--max-body bytes] "
+                    + "[--cache-mb megabytes] [--cache-dir directory] [--cache-disk-mb megabytes] [--font names] "
+                    + "[--max-size size] [--max-segment-length letters]");
+            System.exit(2);
+        }
+        ConversionServer server = new ConversionServer(new InetSocketAddress(host, port), workerCount,
+                queueCapacity, maxBody);
+        server.setFontName(fontName);
+        server.setMaxFontSize(maxFontSize);
+        server.setMaxSegmentLength(maxSegmentLength);
+        if (cacheDirectory != null) {
+            server.setResultCache(new ResultCache((long) cacheMegabytes << 20, Paths.get(cacheDirectory),
+                    (long) cacheDiskMegabytes << 20));
+        } else if (cacheMegabytes > 0) {
+            server.setResultCache(new ResultCache((long) cacheMegabytes << 20));
+        }
+        server.start();
+        System.out.println("Listening on http://" + host + ":" + server.getAddress().getPort() + "/convert");
+    }
+}
@@ -0,0 +1,54 @@
+package text2gif;
+
+import com.sun.istack.internal.NotNull;
+
+/**
+ * Receives metrics of conversion stages, e.g. to export them to monitoring.
+ * Stages of pipelined conversion run in different threads, so methods can be called concurrently
+ * (calls of one method in one conversion are never concurrent). Listener shared by several
+ * conversions must be thread-safe. Methods are called in conversion threads and should return quickly.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+public interface ConversionListener {
+    /**
+     * Listener ignoring everything.
+     */
+    ConversionListener NONE = new ConversionListener() {
+    };
+
+    /**
+     * Called after chunk of input is read.
+     * @param chars number of chars read
+     * @param nanos time of reading in nanoseconds
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    default void chunkRead(int chars, long nanos) {
+    }
+
+    /**
+     * Called after frames are rendered (taken from glyph cache or painted).
+     * @param frames number of frames
+     * @param nanos time of rendering in nanoseconds
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    default void framesRendered(int frames, long nanos) {
+    }
+
+    /**
+     * Called after frames are encoded and written. In parallel conversion segments are encoded
+     * before they are written, so time can be reported with 0 frames.
+     * @param frames number of frames written
+     * @param nanos time of encoding and writing in nanoseconds
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    default void framesEncoded(int frames, long nanos) {
+    }
+
+    /**
+     * Called once when conversion is finished successfully.
+     * @param stats totals of conversion
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    default void conversionFinished(@NotNull ConversionStats stats) {
+    }
+}
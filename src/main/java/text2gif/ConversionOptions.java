@@ -0,0 +1,334 @@
+package text2gif;
+
+import com.sun.istack.internal.NotNull;
+import text2gif.annotations.Positive;
+
+import javax.imageio.IIOException;
+import javax.imageio.stream.ImageOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Settings of text to GIF conversion. Setters return this object, so settings can be chained.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+public class ConversionOptions {
+    /**
+     * Default maximum number of letters in frame of segment.
+     */
+    public static final int DEFAULT_SEGMENT_LENGTH = 16;
+
+    /**
+     * Render settings of letters.
+     */
+    private RenderContext renderContext = RenderContext.DEFAULT;
+    /**
+     * Encoder of frames.
+     */
+    private GifSequenceWriter.Backend backend = GifSequenceWriter.Backend.IMAGEIO;
+    /**
+     * Time of showing one letter in milliseconds.
+     */
+    private int frameDelay = 1000;
+    /**
+     * Is true if GIF loops repeatedly.
+     */
+    private boolean loopContinuously = false;
+    /**
+     * Is true if reading, rendering and encoding run in separate threads (off by default: starting
+     * two threads per conversion costs more than it saves on short texts).
+     */
+    private boolean pipelined = false;
+    /**
+     * Pool rendering and encoding segments of text in parallel (null for single-threaded encoding).
+     */
+    private ForkJoinPool forkJoinPool;
+    /**
+     * Is true if built-in encoder writes only changed rectangles of frames.
+     */
+    private boolean deltaFrames = false;
+    /**
+     * Is true if run of equal letters is written as one frame with longer delay.
+     */
+    private boolean collapseRuns = true;
+    /**
+     * How text is cut into frames.
+     */
+    private Segmentation segmentation = Segmentation.LETTER;
+    /**
+     * Maximum number of letters in frame of segment.
+     */
+    private int segmentLength = DEFAULT_SEGMENT_LENGTH;
+    /**
+     * Size of write-behind buffer in bytes (0 if output is written synchronously).
+     */
+    private int writeBehindBufferSize = 0;
+    /**
+     * Number of write-behind buffers.
+     */
+    private int writeBehindBufferCount = WriteBehindOutputStream.DEFAULT_BUFFER_COUNT;
+    /**
+     * When write-behind output is forced to storage device.
+     */
+    private WriteBehindOutputStream.Sync sync = WriteBehindOutputStream.Sync.NONE;
+    /**
+     * Listener of conversion stages.
+     */
+    private ConversionListener listener = ConversionListener.NONE;
+    /**
+     * Cache of converted strings (null if strings are always converted).
+     */
+    private ResultCache resultCache;
+
+    public RenderContext getRenderContext() {
+        return renderContext;
+    }
+
+    public ConversionOptions setRenderContext(@NotNull RenderContext renderContext) {
+        this.renderContext = renderContext;
+        return this;
+    }
+
+    public GifSequenceWriter.Backend getBackend() {
+        return backend;
+    }
+
+    public ConversionOptions setBackend(@NotNull GifSequenceWriter.Backend backend) {
+        this.backend = backend;
+        return this;
+    }
+
+    public int getFrameDelay() {
+        return frameDelay;
+    }
+
+    /**
+     * Sets delay between frames of letters.
+     * @param frameDelay delay in milliseconds
+     * @return this object
+     * @throws IllegalArgumentException if delay isn't positive
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public ConversionOptions setFrameDelay(@Positive int frameDelay) {
+        if (frameDelay <= 0) {
+            throw new IllegalArgumentException("Frame delay must be positive");
+        }
+        this.frameDelay = frameDelay;
+        return this;
+    }
+
+    public boolean isLoopContinuously() {
+        return loopContinuously;
+    }
+
+    public ConversionOptions setLoopContinuously(boolean loopContinuously) {
+        this.loopContinuously = loopContinuously;
+        return this;
+    }
+
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    public ConversionOptions setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+        return this;
+    }
+
+    public ForkJoinPool getForkJoinPool() {
+        return forkJoinPool;
+    }
+
+    /**
+     * Sets pool for parallel conversion: text is split into segments, which are rendered and encoded
+     * on the pool and written in original order (output is the same as of sequential conversion).
+     * With ImageIO backend only rendering is parallel.
+     * @param forkJoinPool pool (null disables parallel conversion)
+     * @return this object
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public ConversionOptions setForkJoinPool(ForkJoinPool forkJoinPool) {
+        this.forkJoinPool = forkJoinPool;
+        return this;
+    }
+
+    public boolean isDeltaFrames() {
+        return deltaFrames;
+    }
+
+    /**
+     * Makes built-in encoder write only bounding rectangle of pixels changed since previous frame,
+     * unchanged pixels are transparent. Ignored by ImageIO backend.
+     * @param deltaFrames is true to write delta frames
+     * @return this object
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public ConversionOptions setDeltaFrames(boolean deltaFrames) {
+        this.deltaFrames = deltaFrames;
+        return this;
+    }
+
+    public boolean isCollapseRuns() {
+        return collapseRuns;
+    }
+
+    /**
+     * Makes run of N equal letters one frame shown N times longer. Animation looks the same,
+     * but has fewer frames.
+     * @param collapseRuns is true to collapse runs
+     * @return this object
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public ConversionOptions setCollapseRuns(boolean collapseRuns) {
+        this.collapseRuns = collapseRuns;
+        return this;
+    }
+
+    public Segmentation getSegmentation() {
+        return segmentation;
+    }
+
+    /**
+     * Sets how text is cut into frames. Segments of several letters are converted in calling thread
+     * (pipelined and parallel conversion work only with letters).
+     * @param segmentation segmentation mode
+     * @return this object
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public ConversionOptions setSegmentation(@NotNull Segmentation segmentation) {
+        this.segmentation = segmentation;
+        return this;
+    }
+
+    public int getSegmentLength() {
+        return segmentLength;
+    }
+
+    /**
+     * Sets number of letters in frame of FIXED segmentation and maximum number of letters
+     * in frame of WORD and LINE segmentation (width of frames is fitted to it).
+     * @param segmentLength number of letters
+     * @return this object
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public ConversionOptions setSegmentLength(@Positive int segmentLength) {
+        if (segmentLength <= 0) {
+            throw new IllegalArgumentException("Segment length must be positive");
+        }
+        this.segmentLength = segmentLength;
+        return this;
+    }
+
+    public int getWriteBehindBufferSize() {
+        return writeBehindBufferSize;
+    }
+
+    public int getWriteBehindBufferCount() {
+        return writeBehindBufferCount;
+    }
+
+    /**
+     * Makes output written behind encoding: encoder fills one buffer while other buffers are written
+     * by separate thread, so it waits for output only when all buffers are full.
+     * @param bufferSize size of one buffer in bytes (0 disables write-behind)
+     * @param bufferCount number of buffers (at least 2)
+     * @return this object
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public ConversionOptions setWriteBehind(int bufferSize, int bufferCount) {
+        if (bufferSize < 0) {
+            throw new IllegalArgumentException("Buffer size must not be negative");
+        }
+        if (bufferCount < 2) {
+            throw new IllegalArgumentException("At least two buffers are needed");
+        }
+        this.writeBehindBufferSize = bufferSize;
+        this.writeBehindBufferCount = bufferCount;
+        return this;
+    }
+
+    public WriteBehindOutputStream.Sync getSync() {
+        return sync;
+    }
+
+    /**
+     * Sets when write-behind output written to file is forced to storage device.
+     * @param sync sync policy
+     * @return this object
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public ConversionOptions setSync(@NotNull WriteBehindOutputStream.Sync sync) {
+        this.sync = sync;
+        return this;
+    }
+
+    public ConversionListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Sets listener receiving time and amount of work of every stage of conversion,
+     * e.g. JfrConversionListener emitting Flight Recorder events.
+     * @param listener listener (ConversionListener.NONE to ignore metrics)
+     * @return this object
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public ConversionOptions setListener(@NotNull ConversionListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Sets cache of images of strings converted by GifWriterUtil.writeString and toByteArray:
+     * the same string converted with the same settings is served from cache without rendering and encoding.
+     * @param resultCache cache (null disables caching)
+     * @return this object
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public ConversionOptions setResultCache(ResultCache resultCache) {
+        this.resultCache = resultCache;
+        return this;
+    }
+
+    /**
+     * @return maximum number of letters written as one frame (delay of frame must fit into int)
+     */
+    int getMaxRunLength() {
+        return collapseRuns ? Integer.MAX_VALUE / frameDelay : 1;
+    }
+
+    /**
+     * Creates GifSequenceWriter with these settings.
+     * @param output stream to write to
+     * @return writer
+     * @throws IOException if an I/O error occurs
+     * @throws IIOException if no gif ImageWriters are found
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    GifSequenceWriter createWriter(@NotNull ImageOutputStream output) throws IOException, IIOException {
+        GifSequenceWriter writer = new GifSequenceWriter(output, renderContext.getImageTypeSpecifier(), frameDelay,
+                loopContinuously, backend);
+        writer.setDeltaFrames(deltaFrames);
+        return writer;
+    }
+
+    /**
+     * Creates GifSequenceWriter with these settings writing forward-only to stream.
+     * @param output stream to write to
+     * @return writer
+     * @throws IOException if an I/O error occurs
+     * @throws IIOException if no gif ImageWriters are found
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    GifSequenceWriter createWriter(@NotNull OutputStream output) throws IOException, IIOException {
+        GifSequenceWriter writer = new GifSequenceWriter(output, renderContext.getImageTypeSpecifier(), frameDelay,
+                loopContinuously, backend);
+        writer.setDeltaFrames(deltaFrames);
+        return writer;
+    }
+}
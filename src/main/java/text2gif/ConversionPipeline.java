@@ -0,0 +1,369 @@
+package text2gif;
+
+import com.sun.istack.internal.NotNull;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts text in three stages running at the same time: reader thread, render thread and
+ * encode stage in calling thread. Stages are connected by bounded queues, buffers are recycled,
+ * so memory doesn't depend on input size and slow stage holds back the others. When a stage fails,
+ * the others stop waiting on queues and end, so conversion never waits for a stage that is gone.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+class ConversionPipeline {
+    /**
+     * Number of chunks or batches in flight between two stages.
+     */
+    private static final int QUEUE_CAPACITY = 4;
+    /**
+     * Time a stage waits on queue before checking whether pipeline is stopped.
+     */
+    private static final long WAIT_MILLIS = 50;
+
+    /**
+     * Chunk of text.
+     */
+    private static final class Chunk {
+        final char[] chars;
+        int length;
+
+        Chunk(int size) {
+            chars = new char[size];
+        }
+    }
+
+    /**
+     * Rendered frames of one chunk.
+     */
+    private static final class Batch {
+        final BufferedImage[] frames;
+        final int[] keys;
+        /**
+         * Number of equal letters shown by every frame.
+         */
+        final int[] counts;
+        /**
+         * Is true if frames are taken from frame pool of render context.
+         */
+        boolean pooled;
+        int length;
+
+        Batch(int size) {
+            frames = new BufferedImage[size];
+            keys = new int[size];
+            counts = new int[size];
+        }
+    }
+
+    /**
+     * End of stream marker.
+     */
+    private static final Chunk END_CHUNK = new Chunk(0);
+    private static final Batch END_BATCH = new Batch(0);
+
+    private final Reader reader;
+    private final GifSequenceWriter writer;
+    private final RenderContext context;
+    private final GlyphCache cache;
+    private final int chunkSize;
+    private final int maxRunLength;
+    private final ConversionStats stats;
+
+    private final BlockingQueue<Chunk> readQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<Chunk> freeChunks = new ArrayBlockingQueue<>(QUEUE_CAPACITY + 2);
+    private final BlockingQueue<Batch> renderQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<Batch> freeBatches = new ArrayBlockingQueue<>(QUEUE_CAPACITY + 2);
+
+    /**
+     * First error of reader or render stage.
+     */
+    private volatile Throwable failure;
+    /**
+     * Is true when a stage failed or conversion ended: stages stop waiting on queues.
+     */
+    private volatile boolean stopped;
+
+    /**
+     * Creates pipeline.
+     * @param reader text input
+     * @param writer GIF output
+     * @param context render settings
+     * @param chunkSize number of chars read at once
+     * @param maxRunLength maximum number of equal letters written as one frame
+     * @param stats statistics to fill
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    ConversionPipeline(@NotNull Reader reader, @NotNull GifSequenceWriter writer, @NotNull RenderContext context,
+                       int chunkSize, int maxRunLength, @NotNull ConversionStats stats) {
+        this.reader = reader;
+        this.writer = writer;
+        this.context = context;
+        this.cache = TextUtil.getGlyphCache();
+        this.chunkSize = chunkSize;
+        this.maxRunLength = maxRunLength;
+        this.stats = stats;
+        // Preallocate recycled buffers
+        for (int i = 0; i < QUEUE_CAPACITY + 2; i++) {
+            freeChunks.add(new Chunk(chunkSize));
+            freeBatches.add(new Batch(chunkSize));
+        }
+    }
+
+    /**
+     * Runs conversion and waits for its end.
+     * @throws IOException if an I/O error occurs in any stage
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    void run() throws IOException {
+        Thread readThread = new Thread(this::read, "text2gif-reader");
+        Thread renderThread = new Thread(this::render, "text2gif-render");
+        readThread.setDaemon(true);
+        renderThread.setDaemon(true);
+        readThread.start();
+        renderThread.start();
+        try {
+            encode();
+        } catch (InterruptedException x) {
+            if (!stopped) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Conversion interrupted");
+            }
+            // Stopped by failed stage, its error is thrown below
+        } finally {
+            // Stop producers if encoding failed (reader may be blocked in input)
+            stopped = true;
+            readThread.interrupt();
+            renderThread.interrupt();
+        }
+        try {
+            readThread.join();
+            renderThread.join();
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Conversion interrupted");
+        }
+        rethrow();
+    }
+
+    /**
+     * Reader stage: reads chunks until end of input. Surrogate pair split by end of chunk
+     * is moved to the next chunk.
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void read() {
+        try {
+            // First half of surrogate pair kept from previous chunk (-1 if none)
+            int carry = -1;
+            while (true) {
+                Chunk chunk = take(freeChunks);
+                int offset = 0;
+                if (carry >= 0) {
+                    chunk.chars[offset++] = (char) carry;
+                }
+                long start = System.nanoTime();
+                int read = reader.read(chunk.chars, offset, chunkSize - offset);
+                stats.chunkRead(Math.max(read, 0), System.nanoTime() - start);
+                if (read < 0) {
+                    if (offset > 0) {
+                        chunk.length = offset;
+                        put(readQueue, chunk);
+                    }
+                    break;
+                }
+                int length = offset + read;
+                carry = Character.isHighSurrogate(chunk.chars[length - 1]) ? chunk.chars[--length] : -1;
+                chunk.length = length;
+                put(readQueue, chunk);
+            }
+        } catch (Throwable x) {
+            fail(x);
+        } finally {
+            putQuietly(readQueue, END_CHUNK);
+        }
+    }
+
+    /**
+     * Render stage: turns chunks into frames, one frame for every run of equal letters.
+     * Last run of chunk is rendered when the next chunk doesn't continue it.
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void render() {
+        int runCodePoint = -1;
+        int runLength = 0;
+        try {
+            Chunk chunk;
+            while ((chunk = take(readQueue)) != END_CHUNK) {
+                Batch batch = take(freeBatches);
+                long start = System.nanoTime();
+                batch.length = 0;
+                batch.pooled = !cache.isEnabled();
+                for (int i = 0; i < chunk.length; ) {
+                    int codePoint = Character.codePointAt(chunk.chars, i, chunk.length);
+                    i += Character.charCount(codePoint);
+                    if (codePoint == runCodePoint && runLength < maxRunLength) {
+                        runLength++;
+                        continue;
+                    }
+                    if (runLength > 0) {
+                        addFrame(batch, runCodePoint, runLength);
+                    }
+                    runCodePoint = codePoint;
+                    runLength = 1;
+                }
+                stats.rendered(batch.length, System.nanoTime() - start);
+                put(freeChunks, chunk);
+                put(renderQueue, batch);
+            }
+            if (runLength > 0) {
+                // Last run of input
+                Batch batch = take(freeBatches);
+                long start = System.nanoTime();
+                batch.length = 0;
+                batch.pooled = !cache.isEnabled();
+                addFrame(batch, runCodePoint, runLength);
+                stats.rendered(batch.length, System.nanoTime() - start);
+                put(renderQueue, batch);
+            }
+        } catch (Throwable x) {
+            fail(x);
+        } finally {
+            putQuietly(renderQueue, END_BATCH);
+        }
+    }
+
+    /**
+     * Renders frame of run of letters into batch.
+     * @param batch batch to add frame to
+     * @param codePoint letter
+     * @param count number of letters in run
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void addFrame(Batch batch, int codePoint, int count) {
+        BufferedImage frame;
+        if (batch.pooled) {
+            // Paint letter into pooled frame (encode stage returns it)
+            frame = context.acquireFrame();
+            context.paint(codePoint, frame);
+        } else {
+            // Take shared image from glyph cache
+            frame = cache.get(context, codePoint, stats.getGlyphLookups());
+        }
+        batch.frames[batch.length] = frame;
+        batch.keys[batch.length] = codePoint;
+        batch.counts[batch.length] = count;
+        batch.length++;
+    }
+
+    /**
+     * Encode stage: writes frames in order.
+     * @throws IOException if an I/O error occurs
+     * @throws InterruptedException if thread is interrupted
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void encode() throws IOException, InterruptedException {
+        Batch batch;
+        while ((batch = take(renderQueue)) != END_BATCH) {
+            long start = System.nanoTime();
+            try {
+                int delay = writer.getTimeBetweenFramesMS();
+                for (int i = 0; i < batch.length; i++) {
+                    writer.writeToSequence(batch.frames[i], batch.keys[i], batch.counts[i] * delay);
+                }
+            } finally {
+                stats.encoded(batch.length, System.nanoTime() - start);
+                // Recycle batch
+                for (int i = 0; i < batch.length; i++) {
+                    if (batch.pooled) {
+                        context.releaseFrame(batch.frames[i]);
+                    }
+                    batch.frames[i] = null;
+                }
+                put(freeBatches, batch);
+            }
+        }
+    }
+
+    /**
+     * Records the first error of reader or render stage and stops the other stages.
+     * @param x error
+     */
+    private synchronized void fail(Throwable x) {
+        if (failure == null) {
+            failure = x;
+        }
+        stopped = true;
+    }
+
+    /**
+     * Takes item from queue, waiting while pipeline isn't stopped.
+     * @param queue queue to take from
+     * @return item
+     * @throws InterruptedException if thread is interrupted or pipeline is stopped
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private <T> T take(BlockingQueue<T> queue) throws InterruptedException {
+        T item;
+        while ((item = queue.poll(WAIT_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+            if (stopped) {
+                throw new InterruptedException("Conversion stopped");
+            }
+        }
+        return item;
+    }
+
+    /**
+     * Puts item into queue, waiting while pipeline isn't stopped.
+     * @param queue queue to put into
+     * @param item item
+     * @throws InterruptedException if thread is interrupted or pipeline is stopped
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private <T> void put(BlockingQueue<T> queue, T item) throws InterruptedException {
+        while (!queue.offer(item, WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (stopped) {
+                throw new InterruptedException("Conversion stopped");
+            }
+        }
+    }
+
+    /**
+     * Throws error of reader or render stage.
+     * @throws IOException if stage failed with I/O error
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void rethrow() throws IOException {
+        Throwable x = failure;
+        if (x == null || x instanceof InterruptedException) {
+            return;
+        }
+        if (x instanceof IOException) {
+            throw (IOException) x;
+        }
+        if (x instanceof RuntimeException) {
+            throw (RuntimeException) x;
+        }
+        if (x instanceof Error) {
+            throw (Error) x;
+        }
+        throw new IOException(x);
+    }
+
+    /**
+     * Puts end marker, dropping it if thread is interrupted or pipeline is stopped (consumer is gone then).
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private <T> void putQuietly(BlockingQueue<T> queue, T item) {
+        try {
+            put(queue, item);
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
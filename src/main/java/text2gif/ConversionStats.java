@@ -0,0 +1,213 @@
+package text2gif;
+
+import com.sun.istack.internal.NotNull;
+
+/**
+ * Statistics of one conversion: amount of work and time spent in every stage.
+ * Stage times are measured separately, so in pipelined conversion their sum can exceed wall time.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+public class ConversionStats {
+    private final ConversionListener listener;
+    private long chars;
+    private long frames;
+    private long readNanos;
+    private long renderNanos;
+    private long encodeNanos;
+    private long wallNanos;
+    private long bytes;
+    private final GlyphCache.Lookups glyphLookups = new GlyphCache.Lookups();
+    private long reusedFrames;
+    private boolean cached;
+
+    /**
+     * Creates statistics not reported to anyone.
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    ConversionStats() {
+        this(ConversionListener.NONE);
+    }
+
+    /**
+     * Creates statistics reporting every stage to listener.
+     * @param listener listener of stages
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    ConversionStats(@NotNull ConversionListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return number of chars read
+     */
+    public long getChars() {
+        return chars;
+    }
+
+    /**
+     * @return number of frames written
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return time spent reading input in nanoseconds
+     */
+    public long getReadNanos() {
+        return readNanos;
+    }
+
+    /**
+     * @return time spent rendering frames in nanoseconds
+     */
+    public long getRenderNanos() {
+        return renderNanos;
+    }
+
+    /**
+     * @return time spent encoding and writing frames in nanoseconds
+     */
+    public long getEncodeNanos() {
+        return encodeNanos;
+    }
+
+    /**
+     * @return total time of conversion in nanoseconds
+     */
+    public long getWallNanos() {
+        return wallNanos;
+    }
+
+    /**
+     * @return number of bytes of GIF written
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return number of letters taken from glyph cache by this conversion
+     */
+    public long getGlyphHits() {
+        return glyphLookups.getHits();
+    }
+
+    /**
+     * @return number of letters painted because glyph cache missed them in this conversion
+     */
+    public long getGlyphMisses() {
+        return glyphLookups.getMisses();
+    }
+
+    /**
+     * @return number of frames copied from encoded frames of built-in encoder instead of encoding
+     */
+    public long getReusedFrames() {
+        return reusedFrames;
+    }
+
+    /**
+     * @return true if image was taken from result cache without conversion
+     */
+    public boolean isCached() {
+        return cached;
+    }
+
+    /**
+     * Adds read chunk and reports it to listener (end of input isn't reported).
+     * @param chars number of chars read
+     * @param nanos time of reading in nanoseconds
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    void chunkRead(int chars, long nanos) {
+        addChars(chars);
+        addReadNanos(nanos);
+        if (chars > 0) {
+            listener.chunkRead(chars, nanos);
+        }
+    }
+
+    /**
+     * Adds rendered frames and reports them to listener.
+     * @param frames number of frames
+     * @param nanos time of rendering in nanoseconds
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    void rendered(int frames, long nanos) {
+        addRenderNanos(nanos);
+        listener.framesRendered(frames, nanos);
+    }
+
+    /**
+     * Adds encoded frames and reports them to listener.
+     * @param frames number of frames written
+     * @param nanos time of encoding and writing in nanoseconds
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    void encoded(int frames, long nanos) {
+        addFrames(frames);
+        addEncodeNanos(nanos);
+        listener.framesEncoded(frames, nanos);
+    }
+
+    /**
+     * Sets totals of finished conversion and reports them to listener.
+     * @param wallNanos total time in nanoseconds
+     * @param bytes number of bytes written
+     * @param reusedFrames frames copied from encoded frames
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    void finish(long wallNanos, long bytes, long reusedFrames) {
+        this.wallNanos = wallNanos;
+        this.bytes = bytes;
+        this.reusedFrames = reusedFrames;
+        listener.conversionFinished(this);
+    }
+
+    /**
+     * Sets totals of image served from result cache and reports them to listener.
+     * @param wallNanos total time in nanoseconds
+     * @param bytes number of bytes written
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    void finishCached(long wallNanos, long bytes) {
+        cached = true;
+        finish(wallNanos, bytes, 0);
+    }
+
+    /**
+     * @return glyph cache lookups of conversion, counted by the thread rendering frames
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    GlyphCache.Lookups getGlyphLookups() {
+        return glyphLookups;
+    }
+
+    void addChars(long count) {
+        chars += count;
+    }
+
+    void addFrames(long count) {
+        frames += count;
+    }
+
+    void addReadNanos(long nanos) {
+        readNanos += nanos;
+    }
+
+    void addRenderNanos(long nanos) {
+        renderNanos += nanos;
+    }
+
+    void addEncodeNanos(long nanos) {
+        encodeNanos += nanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d chars, %d frames, %d bytes, read %.1f ms, render %.1f ms, encode %.1f ms, "
+                        + "wall %.1f ms", chars, frames, bytes, readNanos / 1e6, renderNanos / 1e6, encodeNanos / 1e6,
+                wallNanos / 1e6);
+    }
+}
@@ -0,0 +1,38 @@
+package text2gif;
+
+import com.sun.istack.internal.NotNull;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream counting bytes written to underlying stream.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+class CountingOutputStream extends FilterOutputStream {
+    private long count;
+
+    CountingOutputStream(@NotNull OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        count++;
+    }
+
+    @Override
+    public void write(@NotNull byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        count += len;
+    }
+
+    /**
+     * @return number of bytes written
+     */
+    long getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,323 @@
+package text2gif;
+
+import com.sun.istack.internal.NotNull;
+import text2gif.annotations.NotNegative;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOInvalidTreeException;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import java.awt.image.ColorModel;
+import java.awt.image.IndexColorModel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Thread-safe pool of ImageIO GIF encoder sessions. A session is a GIF ImageWriter with its write parameters
+ * and frame metadata, configured once for a frame type and loop setting and reused by later GIFs of the
+ * same kind, so short conversions don't look up ImageIO registry and don't build metadata trees.
+ * Metadata of frames with other delays or positions is made from a prebuilt template by changing
+ * its attributes, without converting default metadata to a tree and back.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+public class EncoderSessionPool {
+    /**
+     * Default maximum number of idle sessions of one kind.
+     */
+    public static final int DEFAULT_MAX_IDLE = 16;
+    /**
+     * Pool used by GifSequenceWriter.
+     */
+    public static final EncoderSessionPool SHARED = new EncoderSessionPool(DEFAULT_MAX_IDLE);
+    /**
+     * Maximum number of kinds of sessions kept (least recently used kinds are dropped).
+     */
+    private static final int MAX_KINDS = 64;
+
+    /**
+     * Idle sessions by kind in access order (eldest entry is least recently used kind).
+     */
+    private final LinkedHashMap<Kind, ArrayDeque<Session>> idle = new LinkedHashMap<>(16, 0.75f, true);
+    private int maxIdle;
+    /**
+     * Counters.
+     */
+    private long created;
+    private long reused;
+
+    /**
+     * Creates empty pool.
+     * @param maxIdle maximum number of idle sessions of one kind (0 disables reuse)
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public EncoderSessionPool(@NotNegative int maxIdle) {
+        if (maxIdle < 0) {
+            throw new IllegalArgumentException("maxIdle must not be negative");
+        }
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Takes idle session for frames of given type or creates new one.
+     * Session should be returned by release when its GIF is finished.
+     * @param type type of frames
+     * @param loopContinuously whether GIF loops repeatedly
+     * @return session without output
+     * @throws IIOException if no GIF ImageWriters are found
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    Session acquire(@NotNull ImageTypeSpecifier type, boolean loopContinuously) throws IIOException {
+        Kind kind = new Kind(type, loopContinuously);
+        synchronized (this) {
+            ArrayDeque<Session> sessions = idle.get(kind);
+            Session session = sessions != null ? sessions.pollFirst() : null;
+            if (session != null) {
+                reused++;
+                return session;
+            }
+            created++;
+        }
+        return new Session(kind);
+    }
+
+    /**
+     * Returns session of finished GIF to pool. Writers of sessions over the limits (also of all idle sessions
+     * of least recently used kind) are disposed.
+     * @param session session taken by acquire (its writer has no output)
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    void release(@NotNull Session session) {
+        boolean kept = false;
+        ArrayDeque<Session> evicted = null;
+        synchronized (this) {
+            ArrayDeque<Session> sessions = maxIdle > 0
+                    ? idle.computeIfAbsent(session.kind, k -> new ArrayDeque<>()) : null;
+            if (sessions != null && sessions.size() < maxIdle) {
+                sessions.addFirst(session);
+                kept = true;
+            }
+            if (idle.size() > MAX_KINDS) {
+                // Drop least recently used kind
+                Iterator<ArrayDeque<Session>> it = idle.values().iterator();
+                evicted = it.next();
+                it.remove();
+            }
+        }
+        // Dispose writers outside of the lock
+        if (!kept) {
+            session.writer.dispose();
+        }
+        if (evicted != null) {
+            for (Session dropped : evicted) {
+                dropped.writer.dispose();
+            }
+        }
+    }
+
+    /**
+     * Sets maximum number of idle sessions of one kind, dropping sessions over it.
+     * @param maxIdle maximum number of idle sessions (0 disables reuse)
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public synchronized void setMaxIdle(@NotNegative int maxIdle) {
+        if (maxIdle < 0) {
+            throw new IllegalArgumentException("maxIdle must not be negative");
+        }
+        this.maxIdle = maxIdle;
+        for (Iterator<ArrayDeque<Session>> it = idle.values().iterator(); it.hasNext(); ) {
+            ArrayDeque<Session> sessions = it.next();
+            while (sessions.size() > maxIdle) {
+                sessions.pollLast().writer.dispose();
+            }
+            if (sessions.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @return maximum number of idle sessions of one kind
+     */
+    public synchronized int getMaxIdle() {
+        return maxIdle;
+    }
+
+    /**
+     * @return number of sessions created
+     */
+    public synchronized long getCreated() {
+        return created;
+    }
+
+    /**
+     * @return number of GIFs written by reused sessions
+     */
+    public synchronized long getReused() {
+        return reused;
+    }
+
+    /**
+     * @return number of idle sessions
+     */
+    public synchronized int getIdle() {
+        int count = 0;
+        for (ArrayDeque<Session> sessions : idle.values()) {
+            count += sessions.size();
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("created %d, reused %d, idle %d", created, reused, getIdle());
+    }
+
+    /**
+     * Frame type and loop setting: sessions of the same kind have the same metadata.
+     */
+    private static final class Kind {
+        private final ImageTypeSpecifier type;
+        /**
+         * Colors of palette (null for frames without palette), not compared by ColorModel.equals.
+         */
+        private final int[] palette;
+        private final boolean loopContinuously;
+
+        Kind(ImageTypeSpecifier type, boolean loopContinuously) {
+            this.type = type;
+            this.loopContinuously = loopContinuously;
+            ColorModel colorModel = type.getColorModel();
+            if (colorModel instanceof IndexColorModel) {
+                IndexColorModel icm = (IndexColorModel) colorModel;
+                palette = new int[icm.getMapSize()];
+                icm.getRGBs(palette);
+            } else {
+                palette = null;
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Kind)) return false;
+            Kind kind = (Kind) o;
+            return loopContinuously == kind.loopContinuously && type.equals(kind.type)
+                    && Arrays.equals(palette, kind.palette);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * type.hashCode() + Arrays.hashCode(palette)) + (loopContinuously ? 1 : 0);
+        }
+    }
+
+    /**
+     * GIF ImageWriter configured for one kind of GIFs. Used by one GifSequenceWriter at a time.
+     */
+    static final class Session {
+        /**
+         * Maximum number of kept metadata variants.
+         */
+        private static final int MAX_METADATA = 1024;
+
+        private final Kind kind;
+        final ImageWriter writer;
+        final ImageWriteParam param;
+        private final String formatName;
+        /**
+         * Template merged into default metadata of frames, its delay and position nodes are changed in place.
+         */
+        private final IIOMetadataNode template;
+        private final IIOMetadataNode control;
+        private final IIOMetadataNode descriptor;
+        /**
+         * Metadata of frames by left position and delay time in centiseconds (left << 16 | delay).
+         */
+        private final LinkedHashMap<Integer, IIOMetadata> metadata = new LinkedHashMap<>(16, 0.75f, true);
+
+        /**
+         * Creates writer and template of frame metadata.
+         * @param kind frame type and loop setting
+         * @throws IIOException if no GIF ImageWriters are found
+         * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+         */
+        private Session(Kind kind) throws IIOException {
+            this.kind = kind;
+            Iterator<ImageWriter> writers = ImageIO.getImageWritersBySuffix("gif");
+            if (!writers.hasNext()) {
+                throw new IIOException("No GIF Image Writers Exist");
+            }
+            writer = writers.next();
+            param = writer.getDefaultWriteParam();
+            formatName = writer.getDefaultImageMetadata(kind.type, param).getNativeMetadataFormatName();
+            // Build template once
+            template = new IIOMetadataNode(formatName);
+            control = new IIOMetadataNode("GraphicControlExtension");
+            control.setAttribute("disposalMethod", "none");
+            control.setAttribute("userInputFlag", "FALSE");
+            control.setAttribute("transparentColorFlag", "FALSE");
+            control.setAttribute("delayTime", "0");
+            control.setAttribute("transparentColorIndex", "0");
+            template.appendChild(control);
+            IIOMetadataNode applications = new IIOMetadataNode("ApplicationExtensions");
+            IIOMetadataNode application = new IIOMetadataNode("ApplicationExtension");
+            application.setAttribute("applicationID", "NETSCAPE");
+            application.setAttribute("authenticationCode", "2.0");
+            int loop = kind.loopContinuously ? 0 : 1;
+            application.setUserObject(new byte[]{0x1, (byte) (loop & 0xFF), (byte) ((loop >> 8) & 0xFF)});
+            applications.appendChild(application);
+            template.appendChild(applications);
+            // Merged only into metadata of frames not at left edge (size is set by writer from frame).
+            // Frames stay interlaced as in default metadata: non-interlaced path of JDK writer ignores
+            // offset of cropped frames
+            descriptor = new IIOMetadataNode("ImageDescriptor");
+            descriptor.setAttribute("imageTopPosition", "0");
+            descriptor.setAttribute("imageWidth", "1");
+            descriptor.setAttribute("imageHeight", "1");
+            descriptor.setAttribute("interlaceFlag", "TRUE");
+        }
+
+        /**
+         * Returns metadata of frames with given delay and position, creating it once.
+         * @param delay delay time in centiseconds
+         * @param left left position of frames on logical screen
+         * @return image metadata
+         * @throws IIOInvalidTreeException if metadata can't be built
+         * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+         */
+        IIOMetadata getMetadata(int delay, int left) throws IIOInvalidTreeException {
+            int key = left << 16 | delay;
+            IIOMetadata result = metadata.get(key);
+            if (result != null) {
+                return result;
+            }
+            result = writer.getDefaultImageMetadata(kind.type, param);
+            control.setAttribute("delayTime", Integer.toString(delay));
+            if (left != 0) {
+                descriptor.setAttribute("imageLeftPosition", Integer.toString(left));
+                template.insertBefore(descriptor, control);
+            }
+            try {
+                result.mergeTree(formatName, template);
+            } finally {
+                if (left != 0) {
+                    template.removeChild(descriptor);
+                }
+            }
+            metadata.put(key, result);
+            if (metadata.size() > MAX_METADATA) {
+                // Drop least recently used metadata
+                Iterator<Integer> it = metadata.keySet().iterator();
+                it.next();
+                it.remove();
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package text2gif;
+
+import com.sun.istack.internal.NotNull;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Index of fonts of fallback chain by code point. Chain is a comma-separated list of font names
+ * ("DejaVu Sans Mono, Noto Sans CJK SC, Noto Color Emoji"): every letter is painted with the first font
+ * which can display it, or with the first font if none can. Index is built per page of 256 code points
+ * when a letter of the page is needed first, so looking up font of a letter is one array read instead of
+ * Font.canDisplay calls. Indexes are shared by all render contexts of the same chain and style.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+public final class FontCoverage {
+    /**
+     * Separator of font names in chain.
+     */
+    public static final String SEPARATOR = ",";
+    /**
+     * Maximum number of fonts in chain (index of font is stored in byte).
+     */
+    public static final int MAX_FONTS = Byte.MAX_VALUE;
+    private static final int PAGE_BITS = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_COUNT = (Character.MAX_CODE_POINT + 1) >> PAGE_BITS;
+
+    /**
+     * Indexes by style and chain.
+     */
+    private static final ConcurrentHashMap<String, FontCoverage> SHARED = new ConcurrentHashMap<>();
+
+    private final String[] names;
+    /**
+     * Fonts used to check coverage (size doesn't change it).
+     */
+    private final Font[] fonts;
+    /**
+     * Index of font of every code point by page (null for pages not built yet, whole array null for one font).
+     */
+    private final AtomicReferenceArray<byte[]> pages;
+
+    /**
+     * Creates index without building pages.
+     * @param names font names of chain
+     * @param fontStyle font style (Font.PLAIN, Font.BOLD, ...)
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private FontCoverage(String[] names, int fontStyle) {
+        this.names = names;
+        fonts = new Font[names.length];
+        for (int i = 0; i < names.length; i++) {
+            fonts[i] = new Font(names[i], fontStyle, 1);
+        }
+        pages = names.length > 1 ? new AtomicReferenceArray<>(PAGE_COUNT) : null;
+    }
+
+    /**
+     * Returns shared index of chain, creating it once.
+     * @param fontNames font name or comma-separated chain of font names
+     * @param fontStyle font style (Font.PLAIN, Font.BOLD, ...)
+     * @return index
+     * @throws IllegalArgumentException if chain has more than MAX_FONTS fonts
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public static FontCoverage get(@NotNull String fontNames, int fontStyle) {
+        return SHARED.computeIfAbsent(fontStyle + SEPARATOR + fontNames,
+                k -> new FontCoverage(parse(fontNames), fontStyle));
+    }
+
+    /**
+     * Splits chain into font names.
+     * @param fontNames font name or comma-separated chain of font names
+     * @return font names without surrounding spaces (fontNames itself if it has no names)
+     * @throws IllegalArgumentException if chain has more than MAX_FONTS fonts
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    static String[] parse(@NotNull String fontNames) {
+        List<String> names = new ArrayList<>();
+        for (String name : fontNames.split(SEPARATOR)) {
+            if (!name.trim().isEmpty()) {
+                names.add(name.trim());
+            }
+        }
+        if (names.isEmpty()) {
+            return new String[]{fontNames};
+        }
+        if (names.size() > MAX_FONTS) {
+            throw new IllegalArgumentException("Font chain has more than " + MAX_FONTS + " fonts");
+        }
+        return names.toArray(new String[0]);
+    }
+
+    /**
+     * Returns index of font painting code point.
+     * @param codePoint Unicode code point
+     * @return index of the first font of chain which can display code point (0 if none can)
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public int getFontIndex(int codePoint) {
+        if (pages == null || codePoint < 0 || codePoint > Character.MAX_CODE_POINT) {
+            return 0;
+        }
+        byte[] page = pages.get(codePoint >> PAGE_BITS);
+        if (page == null) {
+            page = buildPage(codePoint >> PAGE_BITS);
+        }
+        return page[codePoint & (PAGE_SIZE - 1)];
+    }
+
+    /**
+     * Finds fonts of code points of page. Threads building the same page at once get equal pages.
+     * @param index number of page
+     * @return index of font of every code point of page
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private byte[] buildPage(int index) {
+        byte[] page = new byte[PAGE_SIZE];
+        int first = index << PAGE_BITS;
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            // First font which can display letter, 0 if none can
+            for (int font = 0; font < fonts.length; font++) {
+                if (fonts[font].canDisplay(first + i)) {
+                    page[i] = (byte) font;
+                    break;
+                }
+            }
+        }
+        pages.set(index, page);
+        return page;
+    }
+
+    /**
+     * @return number of fonts in chain
+     */
+    public int getFontCount() {
+        return names.length;
+    }
+
+    /**
+     * @param index index of font in chain
+     * @return font name
+     */
+    public String getFontName(int index) {
+        return names[index];
+    }
+
+    /**
+     * @return number of built pages of 256 code points
+     */
+    public int getBuiltPages() {
+        if (pages == null) {
+            return 0;
+        }
+        int count = 0;
+        for (int i = 0; i < PAGE_COUNT; i++) {
+            if (pages.get(i) != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,60 @@
+package text2gif;
+
+import com.sun.istack.internal.NotNull;
+
+import javax.imageio.stream.ImageOutputStreamImpl;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Write-only ImageOutputStream passing bytes straight to OutputStream: no seeking back,
+ * no cache in memory or in temporary file. GIF ImageWriter writes sequentially, so it works on it.
+ * Closing doesn't close the underlying stream.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+class ForwardImageOutputStream extends ImageOutputStreamImpl {
+    private final OutputStream out;
+
+    /**
+     * Creates stream.
+     * @param out stream to write to
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    ForwardImageOutputStream(@NotNull OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        streamPos++;
+    }
+
+    @Override
+    public void write(@NotNull byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        streamPos += len;
+    }
+
+    @Override
+    public int read() throws IOException {
+        throw new IOException("Stream is write-only");
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        throw new IOException("Stream is write-only");
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+        if (pos != streamPos) {
+            throw new IOException("Stream can't seek");
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+}
@@ -0,0 +1,76 @@
+package text2gif;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Pixel format of rendered frames.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+public enum FrameFormat {
+    /**
+     * 32-bit ARGB frames, GIF writer builds palette of every frame.
+     */
+    ARGB(BufferedImage.TYPE_INT_ARGB, 32, 0),
+    /**
+     * 8-bit indexed frames with fixed palette of 16 shades between background and text color
+     * (4 times less memory than ARGB, no palette building).
+     */
+    INDEXED(BufferedImage.TYPE_BYTE_INDEXED, 8, 16),
+    /**
+     * Packed 4-bit frames with fixed palette of 16 shades between background and text color
+     * (8 times less memory than ARGB, no palette building).
+     */
+    BINARY(BufferedImage.TYPE_BYTE_BINARY, 4, 16),
+    /**
+     * 8-bit indexed frames with palette of background and text color only, written as 1-bit GIF frames,
+     * for letters without antialiasing (RenderQuality.FAST). Java2D paints bytes faster than packed bits.
+     */
+    MONO(BufferedImage.TYPE_BYTE_INDEXED, 8, 2);
+
+    /**
+     * Type of BufferedImage.
+     */
+    private final int imageType;
+    /**
+     * Bits per pixel.
+     */
+    private final int pixelBits;
+    /**
+     * Number of palette entries (0 if format has no palette).
+     */
+    private final int paletteSize;
+
+    FrameFormat(int imageType, int pixelBits, int paletteSize) {
+        this.imageType = imageType;
+        this.pixelBits = pixelBits;
+        this.paletteSize = paletteSize;
+    }
+
+    /**
+     * @return one of the imageTypes specified in BufferedImage
+     */
+    public int getImageType() {
+        return imageType;
+    }
+
+    /**
+     * @return bits per pixel
+     */
+    public int getPixelBits() {
+        return pixelBits;
+    }
+
+    /**
+     * @return number of palette entries (0 if format has no palette)
+     */
+    public int getPaletteSize() {
+        return paletteSize;
+    }
+
+    /**
+     * @return true if frames of this format use fixed palette
+     */
+    public boolean isIndexed() {
+        return paletteSize > 0;
+    }
+}
@@ -0,0 +1,835 @@
+package text2gif;
+
+import com.sun.istack.internal.NotNull;
+
+import java.awt.image.*;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Built-in GIF89a encoder: writes header, Netscape loop block, graphic control extensions
+ * and LZW image data directly, without ImageIO metadata. Buffers are reused between frames.
+ * Frames with IndexColorModel are written as is; colors of other frames are collected into
+ * local color table (alpha is ignored).
+ * Encoded blocks of frames written with a key are kept, so repeated frames are copied instead of encoded.
+ * Not thread-safe.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+public class GifEncoder {
+    /**
+     * Size of color lookup table of direct color frames (power of two, larger than 256).
+     */
+    private static final int COLOR_HASH_SIZE = 1 << 10;
+    /**
+     * Default maximum number of cached frame blocks.
+     */
+    public static final int DEFAULT_BLOCK_CACHE_CAPACITY = 4096;
+    /**
+     * Offset of delay time in frame block (inside graphic control extension).
+     */
+    private static final int DELAY_OFFSET = 4;
+    /**
+     * Maximum delay of one frame in milliseconds (delay time is 16-bit number of centiseconds).
+     * Longer frames are written as several frames with the same image.
+     */
+    public static final int MAX_DELAY_MS = 0xFFFF * 10;
+
+    /**
+     * Output stream.
+     */
+    private final OutputStream out;
+    /**
+     * Global color table (null if frames use local tables).
+     */
+    private final IndexColorModel globalPalette;
+    /**
+     * Netscape loop count (0 is infinite, -1 if block is not written).
+     */
+    private final int loopCount;
+    /**
+     * Compressor and frame buffer.
+     */
+    private final LzwEncoder lzw = new LzwEncoder();
+    /**
+     * Palette indices of current frame.
+     */
+    private byte[] pixels = new byte[0];
+    /**
+     * Palette indices of changed rectangle of delta frame.
+     */
+    private byte[] delta = new byte[0];
+    /**
+     * Samples or ARGB values of current frame.
+     */
+    private int[] samples = new int[0];
+    /**
+     * Local color table of current frame (RGB triplets).
+     */
+    private final byte[] localTable = new byte[256 * 3];
+    /**
+     * Color lookup table of direct color frames: keys are RGB values, -1 if slot is empty.
+     */
+    private final int[] colorKeys = new int[COLOR_HASH_SIZE];
+    private final byte[] colorIndices = new byte[COLOR_HASH_SIZE];
+    /**
+     * Is true when header is written.
+     */
+    private boolean headerWritten;
+    /**
+     * Encoded frame blocks (graphic control extension, image descriptor, local color table
+     * and image data) by frame key, in access order.
+     */
+    private final LinkedHashMap<Object, byte[]> blocks = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * Maximum number of cached frame blocks.
+     */
+    private int blockCacheCapacity = DEFAULT_BLOCK_CACHE_CAPACITY;
+    /**
+     * Number of frames written from cached blocks.
+     */
+    private long blockHits;
+    /**
+     * Number of frames encoded with frame key.
+     */
+    private long blockMisses;
+    /**
+     * Delay time bytes patched into cached blocks.
+     */
+    private final byte[] delayBytes = new byte[2];
+    /**
+     * Is true if frames are written as changed rectangles over previous frame.
+     */
+    private boolean deltaFrames;
+    /**
+     * Palette index of transparent pixels of delta frames (-1 if palette has no free index).
+     */
+    private int transparentIndex = -1;
+    /**
+     * Palette indices of previous frame.
+     */
+    private byte[] previous = new byte[0];
+    private int previousLeft;
+    private int previousWidth;
+    private int previousHeight;
+    /**
+     * Is true if previous holds indices of previous frame in global palette.
+     */
+    private boolean hasPrevious;
+    /**
+     * Key of previous frame written with writeFrame.
+     */
+    private Object previousKey;
+    /**
+     * Left position of frame being written on logical screen.
+     */
+    private int frameLeft;
+
+    /**
+     * Creates encoder.
+     * @param out stream to write GIF to
+     * @param globalPalette palette written as global color table (null if frames use local tables)
+     * @param loopCount Netscape loop count (0 is infinite, -1 to omit the block)
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public GifEncoder(@NotNull OutputStream out, IndexColorModel globalPalette, int loopCount) {
+        this.out = out;
+        this.globalPalette = globalPalette;
+        this.loopCount = loopCount;
+    }
+
+    /**
+     * Creates encoder without output, which can only be used by encodeFrame
+     * (for example to encode frames in other threads).
+     * @param globalPalette palette of global color table of the GIF frames are encoded for
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public GifEncoder(IndexColorModel globalPalette) {
+        this.out = null;
+        this.globalPalette = globalPalette;
+        this.loopCount = -1;
+    }
+
+    /**
+     * Enables delta frames: every frame using global palette is compared with previous one and
+     * only bounding rectangle of changed pixels is written, unchanged pixels inside it are
+     * transparent, frames are not disposed. Global color table gets one more (transparent) entry,
+     * so palettes of 256 colors can't have delta frames. Must be called before first frame.
+     * @param deltaFrames is true to write delta frames
+     * @throws IllegalStateException if header is already written
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public void setDeltaFrames(boolean deltaFrames) {
+        if (headerWritten) {
+            throw new IllegalStateException("Delta frames must be set before first frame");
+        }
+        this.deltaFrames = deltaFrames;
+        transparentIndex = deltaFrames && globalPalette != null && globalPalette.getMapSize() < 256
+                ? globalPalette.getMapSize() : -1;
+    }
+
+    /**
+     * @return true if frames are written as changed rectangles over previous frame
+     */
+    public boolean isDeltaFrames() {
+        return deltaFrames;
+    }
+
+    /**
+     * Encodes frame block (graphic control extension, image descriptor, local color table
+     * and image data) without writing it. Result is the same as bytes written by writeFrame.
+     * @param image frame
+     * @param delayMS time of showing frame in milliseconds
+     * @return encoded frame block
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public byte[] encodeFrame(@NotNull RenderedImage image, int delayMS) {
+        lzw.reset();
+        appendFrame(image, delayMS);
+        return Arrays.copyOf(lzw.buffer(), lzw.length());
+    }
+
+    /**
+     * Encodes frame block following given previous frame (for delta frames) without writing it.
+     * Result is the same as bytes written by writeFrame after previous frame.
+     * @param image frame
+     * @param previousImage previous frame of sequence (null for first frame)
+     * @param delayMS time of showing frame in milliseconds
+     * @return encoded frame block
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public byte[] encodeFrame(@NotNull RenderedImage image, RenderedImage previousImage, int delayMS) {
+        if (previousImage == null) {
+            hasPrevious = false;
+        } else {
+            rememberFrame(previousImage, toIndices(previousImage) == 0);
+        }
+        return encodeFrame(image, delayMS);
+    }
+
+    /**
+     * Writes frame block made by encodeFrame of encoder with the same global palette.
+     * @param block encoded frame block
+     * @param width frame width (logical screen width if it is first frame)
+     * @param height frame height (logical screen height if it is first frame)
+     * @throws IOException if an I/O error occurs
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public void writeBlock(@NotNull byte[] block, int width, int height) throws IOException {
+        if (!headerWritten) {
+            lzw.reset();
+            appendHeader(width, height);
+            out.write(lzw.buffer(), 0, lzw.length());
+        }
+        out.write(block);
+    }
+
+    /**
+     * Writes frame block made by encodeFrame of encoder with the same global palette, replacing its delay.
+     * @param block encoded frame block
+     * @param width frame width (logical screen width if it is first frame)
+     * @param height frame height (logical screen height if it is first frame)
+     * @param delayMS time of showing frame in milliseconds
+     * @throws IOException if an I/O error occurs
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public void writeBlock(@NotNull byte[] block, int width, int height, int delayMS) throws IOException {
+        if (!headerWritten) {
+            lzw.reset();
+            appendHeader(width, height);
+            out.write(lzw.buffer(), 0, lzw.length());
+        }
+        writeRepeated(block, 0, block.length, delayMS);
+    }
+
+    /**
+     * @return palette of global color table (null if frames use local tables)
+     */
+    public IndexColorModel getGlobalPalette() {
+        return globalPalette;
+    }
+
+    /**
+     * Writes frame. Header is written before first frame, logical screen size is taken from it.
+     * @param image frame
+     * @param delayMS time of showing frame in milliseconds
+     * @throws IOException if an I/O error occurs
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public void writeFrame(@NotNull RenderedImage image, int delayMS) throws IOException {
+        lzw.reset();
+        if (!headerWritten) {
+            appendHeader(image.getWidth(), image.getHeight());
+        }
+        previousKey = null;
+        int start = lzw.length();
+        appendFrame(image, delayMS);
+        out.write(lzw.buffer(), 0, start);
+        writeRepeated(lzw.buffer(), start, lzw.length() - start, delayMS);
+    }
+
+    /**
+     * Writes frame at given left position of logical screen, reusing encoded block of frame with the same key.
+     * Logical screen size is taken from the first frame, which must be written at position 0.
+     * @param image frame
+     * @param left left position of frame on logical screen
+     * @param delayMS time of showing frame in milliseconds
+     * @param key key identifying content and position of frame in this sequence (null disables reuse)
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalArgumentException if first frame isn't at position 0
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public void writeFrame(@NotNull RenderedImage image, int left, int delayMS, Object key) throws IOException {
+        if (!headerWritten && left != 0) {
+            throw new IllegalArgumentException("First frame must cover logical screen");
+        }
+        frameLeft = left;
+        try {
+            writeFrame(image, delayMS, key);
+        } finally {
+            frameLeft = 0;
+        }
+    }
+
+    /**
+     * Writes frame, reusing encoded block of frame with the same key.
+     * Frames with equal keys must have equal size and pixels (delay may differ).
+     * @param image frame
+     * @param delayMS time of showing frame in milliseconds
+     * @param key key identifying content of frame in this sequence (null disables reuse)
+     * @throws IOException if an I/O error occurs
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public void writeFrame(@NotNull RenderedImage image, int delayMS, Object key) throws IOException {
+        if (key == null || blockCacheCapacity == 0) {
+            writeFrame(image, delayMS);
+            return;
+        }
+        if (!headerWritten) {
+            lzw.reset();
+            appendHeader(image.getWidth(), image.getHeight());
+            out.write(lzw.buffer(), 0, lzw.length());
+        }
+        if (deltaFrames) {
+            // Delta frame depends on previous frame too
+            if (hasPrevious && previousKey == null) {
+                // Previous frame is unknown, so block can't be reused
+                writeFrame(image, delayMS);
+                previousKey = key;
+                return;
+            }
+            Object frameKey = key;
+            key = new PairKey(previousKey, frameKey);
+            previousKey = frameKey;
+        }
+        byte[] block = blocks.get(key);
+        if (block == null) {
+            // Encode frame once and keep its bytes
+            blockMisses++;
+            block = encodeFrame(image, delayMS);
+            blocks.put(key, block);
+            if (blocks.size() > blockCacheCapacity) {
+                Iterator<Object> it = blocks.keySet().iterator();
+                it.next();
+                it.remove();
+            }
+            writeRepeated(block, 0, block.length, delayMS);
+            return;
+        }
+        // Copy cached block with delay of this frame
+        blockHits++;
+        if (deltaFrames) {
+            // Next delta frame is compared with this one
+            rememberFrame(image, toIndices(image) == 0);
+        }
+        writeRepeated(block, 0, block.length, delayMS);
+    }
+
+    /**
+     * Writes frame block with given delay. Delay longer than MAX_DELAY_MS is split between
+     * copies of block: drawing the same block again doesn't change the screen.
+     * @param block buffer with encoded frame block
+     * @param offset offset of block in buffer
+     * @param length length of block
+     * @param delayMS time of showing frame in milliseconds
+     * @throws IOException if an I/O error occurs
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void writeRepeated(byte[] block, int offset, int length, int delayMS) throws IOException {
+        int remaining = delayMS / 10;
+        do {
+            int delay = Math.min(remaining, 0xFFFF);
+            remaining -= delay;
+            delayBytes[0] = (byte) delay;
+            delayBytes[1] = (byte) (delay >> 8);
+            out.write(block, offset, DELAY_OFFSET);
+            out.write(delayBytes, 0, 2);
+            out.write(block, offset + DELAY_OFFSET + 2, length - DELAY_OFFSET - 2);
+        } while (remaining > 0);
+    }
+
+    /**
+     * Changes maximum number of cached frame blocks (0 disables reuse).
+     * @param capacity maximum number of cached blocks
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public void setBlockCacheCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+        blockCacheCapacity = capacity;
+        Iterator<Object> it = blocks.keySet().iterator();
+        while (blocks.size() > capacity && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * @return number of frames written from cached blocks
+     */
+    public long getBlockHits() {
+        return blockHits;
+    }
+
+    /**
+     * @return number of keyed frames which were encoded
+     */
+    public long getBlockMisses() {
+        return blockMisses;
+    }
+
+    /**
+     * Writes trailer (and header if no frames were written). Doesn't close stream.
+     * @throws IOException if an I/O error occurs
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public void finish() throws IOException {
+        lzw.reset();
+        if (!headerWritten) {
+            appendHeader(1, 1);
+        }
+        lzw.append(0x3B);
+        out.write(lzw.buffer(), 0, lzw.length());
+        out.flush();
+    }
+
+    /**
+     * Appends signature, logical screen descriptor, global color table and Netscape block.
+     * @param width logical screen width
+     * @param height logical screen height
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void appendHeader(int width, int height) {
+        lzw.append('G');
+        lzw.append('I');
+        lzw.append('F');
+        lzw.append('8');
+        lzw.append('9');
+        lzw.append('a');
+        lzw.appendShort(width);
+        lzw.appendShort(height);
+        if (globalPalette != null) {
+            int bits = globalBits();
+            // Global color table flag, color resolution and size of table
+            lzw.append(0x80 | ((bits - 1) << 4) | (bits - 1));
+            lzw.append(0);
+            lzw.append(0);
+            appendTable(globalPalette, bits);
+        } else {
+            lzw.append(0x70);
+            lzw.append(0);
+            lzw.append(0);
+        }
+        if (loopCount >= 0) {
+            lzw.append(0x21);
+            lzw.append(0xFF);
+            lzw.append(11);
+            lzw.append("NETSCAPE2.0".getBytes(StandardCharsets.US_ASCII), 0, 11);
+            lzw.append(3);
+            lzw.append(1);
+            lzw.appendShort(loopCount);
+            lzw.append(0);
+        }
+        headerWritten = true;
+    }
+
+    /**
+     * Appends graphic control extension, image descriptor, local color table and image data.
+     * @param image frame
+     * @param delayMS time of showing frame in milliseconds
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void appendFrame(RenderedImage image, int delayMS) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        // Convert frame to palette indices
+        int localBits = toIndices(image);
+        // Frames are kept on screen if next frames are drawn over them
+        int disposal = deltaFrames ? 1 : 0;
+        if (localBits == 0 && transparentIndex >= 0 && hasPrevious && previousLeft == frameLeft
+                && previousWidth == width && previousHeight == height) {
+            appendDelta(width, height, delayMS);
+        } else {
+            int bits = localBits > 0 ? localBits : globalBits();
+            appendControl(disposal, delayMS, -1);
+            // Image descriptor
+            lzw.append(0x2C);
+            lzw.appendShort(frameLeft);
+            lzw.appendShort(0);
+            lzw.appendShort(width);
+            lzw.appendShort(height);
+            if (localBits > 0) {
+                lzw.append(0x80 | (localBits - 1));
+                lzw.append(localTable, 0, (1 << localBits) * 3);
+            } else {
+                lzw.append(0);
+            }
+            // Image data
+            lzw.encode(pixels, width * height, Math.max(2, bits));
+        }
+        if (deltaFrames) {
+            rememberFrame(width, height, localBits == 0);
+        }
+    }
+
+    /**
+     * Appends rectangle of pixels changed since previous frame, unchanged pixels are transparent.
+     * Converted frame must be in pixels.
+     * @param width frame width
+     * @param height frame height
+     * @param delayMS time of showing frame in milliseconds
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void appendDelta(int width, int height, int delayMS) {
+        // Find bounding rectangle of changed pixels
+        int left = width;
+        int right = -1;
+        int top = height;
+        int bottom = -1;
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                if (pixels[row + x] != previous[row + x]) {
+                    if (x < left) left = x;
+                    if (x > right) right = x;
+                    if (y < top) top = y;
+                    bottom = y;
+                }
+            }
+        }
+        if (right < 0) {
+            // Nothing changed: one transparent pixel
+            left = 0;
+            right = 0;
+            top = 0;
+            bottom = 0;
+        }
+        int rectWidth = right - left + 1;
+        int rectHeight = bottom - top + 1;
+        // Copy rectangle, marking unchanged pixels transparent
+        int count = rectWidth * rectHeight;
+        if (delta.length < count) {
+            delta = new byte[count];
+        }
+        byte transparent = (byte) transparentIndex;
+        for (int y = 0; y < rectHeight; y++) {
+            int row = (y + top) * width + left;
+            for (int x = 0; x < rectWidth; x++) {
+                byte value = pixels[row + x];
+                delta[y * rectWidth + x] = value == previous[row + x] ? transparent : value;
+            }
+        }
+        appendControl(1, delayMS, transparentIndex);
+        // Image descriptor with position of rectangle
+        lzw.append(0x2C);
+        lzw.appendShort(frameLeft + left);
+        lzw.appendShort(top);
+        lzw.appendShort(rectWidth);
+        lzw.appendShort(rectHeight);
+        lzw.append(0);
+        // Image data
+        lzw.encode(delta, count, Math.max(2, globalBits()));
+    }
+
+    /**
+     * Appends graphic control extension.
+     * @param disposal disposal method
+     * @param delayMS time of showing frame in milliseconds
+     * @param transparent transparent palette index (-1 if frame has no transparency)
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void appendControl(int disposal, int delayMS, int transparent) {
+        lzw.append(0x21);
+        lzw.append(0xF9);
+        lzw.append(4);
+        lzw.append((disposal << 2) | (transparent >= 0 ? 1 : 0));
+        lzw.appendShort(delayMS / 10);
+        lzw.append(Math.max(transparent, 0));
+        lzw.append(0);
+    }
+
+    /**
+     * Keeps converted frame (in pixels) as previous frame.
+     * @param width frame width
+     * @param height frame height
+     * @param indexed is true if frame uses global palette
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void rememberFrame(int width, int height, boolean indexed) {
+        int count = width * height;
+        if (previous.length < count) {
+            previous = new byte[count];
+        }
+        System.arraycopy(pixels, 0, previous, 0, count);
+        previousLeft = frameLeft;
+        previousWidth = width;
+        previousHeight = height;
+        hasPrevious = indexed;
+    }
+
+    /**
+     * Converts frame and keeps it as previous frame.
+     * @param image frame
+     * @param indexed is true if frame uses global palette (result of toIndices)
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void rememberFrame(RenderedImage image, boolean indexed) {
+        rememberFrame(image.getWidth(), image.getHeight(), indexed);
+    }
+
+    /**
+     * @return size bits of global color table (including transparent entry of delta frames)
+     */
+    private int globalBits() {
+        return tableBits(globalPalette.getMapSize() + (transparentIndex >= 0 ? 1 : 0));
+    }
+
+    /**
+     * Converts frame to palette indices.
+     * @param image frame
+     * @return size bits of local color table, 0 if frame uses global color table
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private int toIndices(RenderedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int count = width * height;
+        if (pixels.length < count) {
+            pixels = new byte[count];
+        }
+        Raster raster = image instanceof BufferedImage ? ((BufferedImage) image).getRaster() : image.getData();
+        ColorModel colorModel = image.getColorModel();
+
+        if (colorModel instanceof IndexColorModel) {
+            IndexColorModel icm = (IndexColorModel) colorModel;
+            readIndices(raster, width, height);
+            if (globalPalette != null && samePalette(icm, globalPalette)) {
+                return 0;
+            }
+            int bits = tableBits(icm.getMapSize());
+            Arrays.fill(localTable, (byte) 0);
+            for (int i = 0; i < icm.getMapSize(); i++) {
+                localTable[i * 3] = (byte) icm.getRed(i);
+                localTable[i * 3 + 1] = (byte) icm.getGreen(i);
+                localTable[i * 3 + 2] = (byte) icm.getBlue(i);
+            }
+            return bits;
+        }
+
+        // Direct color: collect colors into local color table
+        if (samples.length < count) {
+            samples = new int[count];
+        }
+        if (image instanceof BufferedImage) {
+            ((BufferedImage) image).getRGB(0, 0, width, height, samples, 0, width);
+        } else {
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    samples[y * width + x] = colorModel.getRGB(raster.getDataElements(
+                            raster.getMinX() + x, raster.getMinY() + y, null));
+                }
+            }
+        }
+        Arrays.fill(colorKeys, -1);
+        Arrays.fill(localTable, (byte) 0);
+        int colors = 0;
+        for (int i = 0; i < count; i++) {
+            int rgb = samples[i] & 0xFFFFFF;
+            int slot = (rgb * 0x9E3779B1 >>> 22) & (COLOR_HASH_SIZE - 1);
+            while (colorKeys[slot] != -1 && colorKeys[slot] != rgb) {
+                slot = (slot + 1) & (COLOR_HASH_SIZE - 1);
+            }
+            if (colorKeys[slot] == -1) {
+                if (colors == 256) {
+                    // Too many colors for GIF: use fixed color cube
+                    return cubeIndices(count);
+                }
+                colorKeys[slot] = rgb;
+                colorIndices[slot] = (byte) colors;
+                localTable[colors * 3] = (byte) (rgb >> 16);
+                localTable[colors * 3 + 1] = (byte) (rgb >> 8);
+                localTable[colors * 3 + 2] = (byte) rgb;
+                colors++;
+            }
+            pixels[i] = colorIndices[slot];
+        }
+        return tableBits(colors);
+    }
+
+    /**
+     * Maps ARGB samples of frame to 6x6x6 color cube.
+     * @param count number of pixels
+     * @return size bits of local color table
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private int cubeIndices(int count) {
+        for (int i = 0; i < 216; i++) {
+            localTable[i * 3] = (byte) (i / 36 * 51);
+            localTable[i * 3 + 1] = (byte) (i / 6 % 6 * 51);
+            localTable[i * 3 + 2] = (byte) (i % 6 * 51);
+        }
+        for (int i = 0; i < count; i++) {
+            int rgb = samples[i];
+            int r = (((rgb >> 16) & 0xFF) + 25) / 51;
+            int g = (((rgb >> 8) & 0xFF) + 25) / 51;
+            int b = ((rgb & 0xFF) + 25) / 51;
+            pixels[i] = (byte) (r * 36 + g * 6 + b);
+        }
+        return 8;
+    }
+
+    /**
+     * Reads palette indices of indexed raster into pixels.
+     * @param raster raster with one band of indices
+     * @param width frame width
+     * @param height frame height
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void readIndices(Raster raster, int width, int height) {
+        SampleModel sampleModel = raster.getSampleModel();
+        DataBuffer dataBuffer = raster.getDataBuffer();
+        if (dataBuffer instanceof DataBufferByte && raster.getSampleModelTranslateX() == 0
+                && raster.getSampleModelTranslateY() == 0) {
+            byte[] data = ((DataBufferByte) dataBuffer).getData();
+            if (sampleModel instanceof PixelInterleavedSampleModel
+                    && ((PixelInterleavedSampleModel) sampleModel).getPixelStride() == 1) {
+                // 8-bit indices: copy rows
+                int stride = ((PixelInterleavedSampleModel) sampleModel).getScanlineStride();
+                int offset = dataBuffer.getOffset();
+                for (int y = 0; y < height; y++) {
+                    System.arraycopy(data, offset + y * stride, pixels, y * width, width);
+                }
+                return;
+            }
+            if (sampleModel instanceof MultiPixelPackedSampleModel) {
+                // Packed 1, 2 or 4-bit indices: unpack rows
+                MultiPixelPackedSampleModel packed = (MultiPixelPackedSampleModel) sampleModel;
+                int bits = packed.getPixelBitStride();
+                int stride = packed.getScanlineStride();
+                int offset = dataBuffer.getOffset() + packed.getDataBitOffset() / 8;
+                int perByte = 8 / bits;
+                int mask = (1 << bits) - 1;
+                for (int y = 0; y < height; y++) {
+                    int row = offset + y * stride;
+                    for (int x = 0; x < width; x++) {
+                        int shift = 8 - bits * (x % perByte + 1);
+                        pixels[y * width + x] = (byte) ((data[row + x / perByte] >> shift) & mask);
+                    }
+                }
+                return;
+            }
+        }
+        // Any other raster
+        int count = width * height;
+        if (samples.length < count) {
+            samples = new int[count];
+        }
+        raster.getSamples(raster.getMinX(), raster.getMinY(), width, height, 0, samples);
+        for (int i = 0; i < count; i++) {
+            pixels[i] = (byte) samples[i];
+        }
+    }
+
+    /**
+     * Appends color table padded to power of two.
+     * @param palette palette
+     * @param bits size bits of table
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void appendTable(IndexColorModel palette, int bits) {
+        for (int i = 0; i < (1 << bits); i++) {
+            if (i < palette.getMapSize()) {
+                lzw.append(palette.getRed(i));
+                lzw.append(palette.getGreen(i));
+                lzw.append(palette.getBlue(i));
+            } else {
+                lzw.append(0);
+                lzw.append(0);
+                lzw.append(0);
+            }
+        }
+    }
+
+    /**
+     * Returns true if palettes have the same colors.
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private static boolean samePalette(IndexColorModel a, IndexColorModel b) {
+        if (a == b) {
+            return true;
+        }
+        if (a.getMapSize() != b.getMapSize()) {
+            return false;
+        }
+        for (int i = 0; i < a.getMapSize(); i++) {
+            if (a.getRGB(i) != b.getRGB(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns number of bits of color table large enough for colors (1..8).
+     * @param colors number of colors
+     * @return bits
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private static int tableBits(int colors) {
+        int bits = 1;
+        while ((1 << bits) < colors) {
+            bits++;
+        }
+        return bits;
+    }
+
+    /**
+     * Key of delta frame block: keys of previous and current frame.
+     */
+    private static final class PairKey {
+        private final Object previous;
+        private final Object current;
+
+        PairKey(Object previous, Object current) {
+            this.previous = previous;
+            this.current = current;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PairKey)) return false;
+            PairKey key = (PairKey) o;
+            return current.equals(key.current)
+                    && (previous == null ? key.previous == null : previous.equals(key.previous));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (previous == null ? 0 : previous.hashCode()) + current.hashCode();
+        }
+    }
+}
@@ -12,20 +12,57 @@ package text2gif;
 
 
 import javax.imageio.*;
+import javax.imageio.metadata.IIOInvalidTreeException;
 import javax.imageio.metadata.IIOMetadata;
-import javax.imageio.metadata.IIOMetadataNode;
 import javax.imageio.stream.FileImageOutputStream;
 import javax.imageio.stream.ImageOutputStream;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.IndexColorModel;
 import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.IOException;
-import java.util.Iterator;
+import java.io.OutputStream;
 
 public class GifSequenceWriter implements AutoCloseable {
+    /**
+     * Encoder used to write frames.
+     */
+    public enum Backend {
+        /**
+         * First GIF ImageWriter of ImageIO registry.
+         */
+        IMAGEIO,
+        /**
+         * Built-in GifEncoder writing GIF89a blocks directly.
+         */
+        NATIVE
+    }
+
     protected ImageWriter gifWriter;
     protected ImageWriteParam imageWriteParam;
     protected IIOMetadata imageMetaData;
+    /**
+     * Built-in encoder, null for IMAGEIO backend.
+     */
+    protected GifEncoder encoder;
+    /**
+     * Default delay of frames.
+     */
+    protected int timeBetweenFramesMS;
+    /**
+     * Type of frames and loop setting of ImageIO metadata.
+     */
+    protected ImageTypeSpecifier imageTypeSpecifier;
+    protected boolean loopContinuously;
+    /**
+     * Pooled ImageIO writer with its metadata, returned to EncoderSessionPool.SHARED on close.
+     */
+    private EncoderSessionPool.Session session;
+    /**
+     * Writing of a frame failed, so state of ImageIO writer is unknown and it isn't reused.
+     */
+    private boolean failed;
 
     /**
      * Creates a new GifSequenceWriter
@@ -42,116 +79,370 @@ public class GifSequenceWriter implements AutoCloseable {
             int imageType,
             int timeBetweenFramesMS,
             boolean loopContinuously) throws IIOException, IOException {
-        // my method to create a writer
-        gifWriter = getWriter();
-        imageWriteParam = gifWriter.getDefaultWriteParam();
-        ImageTypeSpecifier imageTypeSpecifier =
-                ImageTypeSpecifier.createFromBufferedImageType(imageType);
+        this(outputStream,
+                ImageTypeSpecifier.createFromBufferedImageType(imageType),
+                timeBetweenFramesMS,
+                loopContinuously);
+    }
 
-        imageMetaData =
-                gifWriter.getDefaultImageMetadata(imageTypeSpecifier,
-                        imageWriteParam);
+    /**
+     * Creates a new GifSequenceWriter for frames of given type. If the type
+     * has an IndexColorModel, its palette is written once as the global color
+     * table and frames using the same palette are written without color
+     * reduction.
+     *
+     * @param outputStream        the ImageOutputStream to be written to
+     * @param imageTypeSpecifier  type of the frames
+     * @param timeBetweenFramesMS the time between frames in miliseconds
+     * @param loopContinuously    wether the gif should loop repeatedly
+     * @throws IIOException if no gif ImageWriters are found
+     */
+    public GifSequenceWriter(
+            ImageOutputStream outputStream,
+            ImageTypeSpecifier imageTypeSpecifier,
+            int timeBetweenFramesMS,
+            boolean loopContinuously) throws IIOException, IOException {
+        this(outputStream, imageTypeSpecifier, timeBetweenFramesMS, loopContinuously, Backend.IMAGEIO);
+    }
 
-        String metaFormatName = imageMetaData.getNativeMetadataFormatName();
+    /**
+     * Creates a new GifSequenceWriter using given encoder backend.
+     *
+     * @param outputStream        the ImageOutputStream to be written to
+     * @param imageTypeSpecifier  type of the frames
+     * @param timeBetweenFramesMS the time between frames in miliseconds
+     * @param loopContinuously    wether the gif should loop repeatedly
+     * @param backend             encoder to use
+     * @throws IIOException if IMAGEIO backend is requested and no gif ImageWriters are found
+     */
+    public GifSequenceWriter(
+            ImageOutputStream outputStream,
+            ImageTypeSpecifier imageTypeSpecifier,
+            int timeBetweenFramesMS,
+            boolean loopContinuously,
+            Backend backend) throws IIOException, IOException {
+        this(outputStream, new ImageOutputStreamAdapter(outputStream), imageTypeSpecifier,
+                timeBetweenFramesMS, loopContinuously, backend);
+    }
 
-        IIOMetadataNode root = (IIOMetadataNode)
-                imageMetaData.getAsTree(metaFormatName);
+    /**
+     * Creates a new GifSequenceWriter writing forward-only to given stream
+     * (socket, standard output, buffer in memory), without seeking and
+     * without ImageIO cache. Closing the writer doesn't close the stream.
+     *
+     * @param outputStream        the OutputStream to be written to
+     * @param imageTypeSpecifier  type of the frames
+     * @param timeBetweenFramesMS the time between frames in miliseconds
+     * @param loopContinuously    wether the gif should loop repeatedly
+     * @param backend             encoder to use
+     * @throws IIOException if IMAGEIO backend is requested and no gif ImageWriters are found
+     */
+    public GifSequenceWriter(
+            OutputStream outputStream,
+            ImageTypeSpecifier imageTypeSpecifier,
+            int timeBetweenFramesMS,
+            boolean loopContinuously,
+            Backend backend) throws IIOException, IOException {
+        this(new ForwardImageOutputStream(outputStream), outputStream, imageTypeSpecifier,
+                timeBetweenFramesMS, loopContinuously, backend);
+    }
 
-        IIOMetadataNode graphicsControlExtensionNode = getNode(
-                root,
-                "GraphicControlExtension");
+    /**
+     * Creates a new GifSequenceWriter writing to the same output seen as
+     * ImageOutputStream (used by ImageIO) and as OutputStream (used by
+     * built-in encoder).
+     */
+    private GifSequenceWriter(
+            ImageOutputStream outputStream,
+            OutputStream encoderStream,
+            ImageTypeSpecifier imageTypeSpecifier,
+            int timeBetweenFramesMS,
+            boolean loopContinuously,
+            Backend backend) throws IIOException, IOException {
+        if (backend == Backend.NATIVE) {
+            // Built-in encoder writes palette of indexed frames as global color table
+            ColorModel colorModel = imageTypeSpecifier.getColorModel();
+            this.timeBetweenFramesMS = timeBetweenFramesMS;
+            encoder = new GifEncoder(
+                    encoderStream,
+                    colorModel instanceof IndexColorModel ? (IndexColorModel) colorModel : null,
+                    loopContinuously ? 0 : 1);
+            return;
+        }
 
-        graphicsControlExtensionNode.setAttribute("disposalMethod", "none");
-        graphicsControlExtensionNode.setAttribute("userInputFlag", "FALSE");
-        graphicsControlExtensionNode.setAttribute(
-                "transparentColorFlag",
-                "FALSE");
-        graphicsControlExtensionNode.setAttribute(
-                "delayTime",
-                Integer.toString(timeBetweenFramesMS/10));
-        graphicsControlExtensionNode.setAttribute(
-                "transparentColorIndex",
-                "0");
+        this.timeBetweenFramesMS = timeBetweenFramesMS;
+        this.imageTypeSpecifier = imageTypeSpecifier;
+        this.loopContinuously = loopContinuously;
+        // Take configured writer of the same kind of GIFs
+        session = EncoderSessionPool.SHARED.acquire(imageTypeSpecifier, loopContinuously);
+        gifWriter = session.writer;
+        imageWriteParam = session.param;
 
-        IIOMetadataNode commentsNode = getNode(root, "CommentExtensions");
-        commentsNode.setAttribute("CommentExtension", "Created by MAH");
+        imageMetaData = session.getMetadata(timeBetweenFramesMS / 10, 0);
 
-        IIOMetadataNode appEntensionsNode = getNode(
-                root,
-                "ApplicationExtensions");
+        gifWriter.setOutput(outputStream);
 
-        IIOMetadataNode child = new IIOMetadataNode("ApplicationExtension");
+        gifWriter.prepareWriteSequence(null);
+    }
+
+    public void writeToSequence(RenderedImage img) throws IOException {
+        if (encoder != null) {
+            encoder.writeFrame(img, timeBetweenFramesMS);
+            return;
+        }
+        write(new IIOImage(
+                img,
+                null,
+                imageMetaData));
+    }
+
+    /**
+     * Writes frame identified by key. Built-in encoder keeps encoded bytes of
+     * keyed frames and copies them when a frame with the same key is written
+     * again; ImageIO backend ignores the key.
+     *
+     * @param img frame
+     * @param key key identifying content of frame in this sequence (null if frame is unique)
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeToSequence(RenderedImage img, Object key) throws IOException {
+        if (encoder != null) {
+            encoder.writeFrame(img, timeBetweenFramesMS, key);
+            return;
+        }
+        writeToSequence(img);
+    }
+
+    /**
+     * Writes frame identified by key with its own delay, e.g. one frame for
+     * a run of equal frames. Delay longer than GifEncoder.MAX_DELAY_MS is
+     * split between copies of the frame.
+     *
+     * @param img     frame
+     * @param key     key identifying content of frame in this sequence (null if frame is unique)
+     * @param delayMS time of showing frame in milliseconds
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeToSequence(RenderedImage img, Object key, int delayMS) throws IOException {
+        writeToSequence(img, 0, key, delayMS);
+    }
 
-        child.setAttribute("applicationID", "NETSCAPE");
-        child.setAttribute("authenticationCode", "2.0");
+    /**
+     * Writes frame identified by key with its own delay at given left
+     * position on logical screen, e.g. frame cropped to changed columns.
+     * Logical screen size is taken from the first frame, which must be
+     * written at position 0.
+     *
+     * @param img     frame
+     * @param left    left position of frame on logical screen
+     * @param key     key identifying content and position of frame in this sequence (null if frame is unique)
+     * @param delayMS time of showing frame in milliseconds
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeToSequence(RenderedImage img, int left, Object key, int delayMS) throws IOException {
+        if (encoder != null) {
+            encoder.writeFrame(img, left, delayMS, key);
+            return;
+        }
+        int remaining = delayMS / 10;
+        do {
+            int delay = Math.min(remaining, 0xFFFF);
+            remaining -= delay;
+            write(new IIOImage(
+                    img,
+                    null,
+                    getImageMetadata(delay, left)));
+        } while (remaining > 0);
+    }
 
-        int loop = loopContinuously ? 0 : 1;
+    /**
+     * Writes frame with ImageIO writer, remembering failure.
+     *
+     * @param image frame with its metadata
+     * @throws IOException if an I/O error occurs
+     */
+    private void write(IIOImage image) throws IOException {
+        boolean written = false;
+        try {
+            gifWriter.writeToSequence(image, imageWriteParam);
+            written = true;
+        } finally {
+            failed |= !written;
+        }
+    }
 
-        child.setUserObject(new byte[]{0x1, (byte) (loop & 0xFF), (byte)
-                ((loop >> 8) & 0xFF)});
-        appEntensionsNode.appendChild(child);
+    /**
+     * Returns metadata of frames with given delay and position, creating it once.
+     *
+     * @param delay delay time in centiseconds
+     * @param left  left position of frames on logical screen
+     * @return image metadata
+     * @throws IIOInvalidTreeException if metadata can't be built
+     */
+    private IIOMetadata getImageMetadata(int delay, int left) throws IIOInvalidTreeException {
+        if (delay == timeBetweenFramesMS / 10 && left == 0) {
+            return imageMetaData;
+        }
+        return session.getMetadata(delay, left);
+    }
 
-        imageMetaData.setFromTree(metaFormatName, root);
+    /**
+     * Returns true if frames can be encoded apart from this writer by
+     * createFrameEncoder and written by writeEncodedFrame.
+     *
+     * @return true for built-in encoder backend
+     */
+    public boolean supportsEncodedFrames() {
+        return encoder != null;
+    }
 
-        gifWriter.setOutput(outputStream);
+    /**
+     * Creates encoder producing frame blocks for this sequence. Every thread
+     * should use its own encoder.
+     *
+     * @return encoder without output
+     * @throws IllegalStateException if backend is not built-in encoder
+     */
+    public GifEncoder createFrameEncoder() {
+        if (encoder == null) {
+            throw new IllegalStateException("ImageIO backend doesn't support encoded frames");
+        }
+        GifEncoder frameEncoder = new GifEncoder(encoder.getGlobalPalette());
+        frameEncoder.setDeltaFrames(encoder.isDeltaFrames());
+        return frameEncoder;
+    }
 
-        gifWriter.prepareWriteSequence(null);
+    /**
+     * Makes built-in encoder write only changed rectangle of every frame
+     * over previous frame. Ignored by ImageIO backend. Must be called before
+     * first frame.
+     *
+     * @param deltaFrames true to write delta frames
+     */
+    public void setDeltaFrames(boolean deltaFrames) {
+        if (encoder != null) {
+            encoder.setDeltaFrames(deltaFrames);
+        }
     }
 
-    public void writeToSequence(RenderedImage img) throws IOException {
-        gifWriter.writeToSequence(
-                new IIOImage(
-                        img,
-                        null,
-                        imageMetaData),
-                imageWriteParam);
+    /**
+     * @return true if built-in encoder writes delta frames
+     */
+    public boolean isDeltaFrames() {
+        return encoder != null && encoder.isDeltaFrames();
     }
 
     /**
-     * Close this GifSequenceWriter object. This does not close the underlying
-     * stream, just finishes off the GIF.
+     * Writes frame block made by encoder of createFrameEncoder.
+     *
+     * @param block  encoded frame block
+     * @param width  frame width
+     * @param height frame height
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalStateException if backend is not built-in encoder
      */
-    public void close() throws IOException {
-        gifWriter.endWriteSequence();
+    public void writeEncodedFrame(byte[] block, int width, int height) throws IOException {
+        if (encoder == null) {
+            throw new IllegalStateException("ImageIO backend doesn't support encoded frames");
+        }
+        encoder.writeBlock(block, width, height);
     }
 
     /**
-     * Returns the first available GIF ImageWriter using
-     * ImageIO.getImageWritersBySuffix("gif").
+     * Writes frame block made by encoder of createFrameEncoder with given delay.
      *
-     * @return a GIF ImageWriter object
-     * @throws IIOException if no GIF image writers are returned
+     * @param block   encoded frame block
+     * @param width   frame width
+     * @param height  frame height
+     * @param delayMS time of showing frame in milliseconds
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalStateException if backend is not built-in encoder
      */
-    private static ImageWriter getWriter() throws IIOException {
-        Iterator<ImageWriter> iter = ImageIO.getImageWritersBySuffix("gif");
-        if (!iter.hasNext()) {
-            throw new IIOException("No GIF Image Writers Exist");
-        } else {
-            return iter.next();
+    public void writeEncodedFrame(byte[] block, int width, int height, int delayMS) throws IOException {
+        if (encoder == null) {
+            throw new IllegalStateException("ImageIO backend doesn't support encoded frames");
         }
+        encoder.writeBlock(block, width, height, delayMS);
     }
 
     /**
-     * Returns an existing child node, or creates and returns a new child node (if
-     * the requested node does not exist).
+     * Returns the time between frames.
      *
-     * @param rootNode the <tt>IIOMetadataNode</tt> to search for the child node.
-     * @param nodeName the name of the child node.
-     * @return the child node, if found or a new node created with the given name.
+     * @return the time between frames in miliseconds
+     */
+    public int getTimeBetweenFramesMS() {
+        return timeBetweenFramesMS;
+    }
+
+    /**
+     * Returns number of frames copied from encoded frames with the same key
+     * instead of being encoded again.
+     *
+     * @return number of reused frames (always 0 for ImageIO backend)
+     */
+    public long getReusedFrames() {
+        return encoder != null ? encoder.getBlockHits() : 0;
+    }
+
+    /**
+     * Close this GifSequenceWriter object. This does not close the underlying
+     * stream, just finishes off the GIF.
      */
-    private static IIOMetadataNode getNode(
-            IIOMetadataNode rootNode,
-            String nodeName) {
-        int nNodes = rootNode.getLength();
-        for (int i = 0; i < nNodes; i++) {
-            if (rootNode.item(i).getNodeName().compareToIgnoreCase(nodeName)
-                    == 0) {
-                return ((IIOMetadataNode) rootNode.item(i));
+    public void close() throws IOException {
+        if (encoder != null) {
+            encoder.finish();
+            return;
+        }
+        if (session == null) {
+            return;
+        }
+        boolean complete = false;
+        try {
+            if (!failed) {
+                gifWriter.endWriteSequence();
+                ((ImageOutputStream) gifWriter.getOutput()).flush();
+                complete = true;
+            }
+        } finally {
+            // Writer is reused only after a complete GIF, writer of failed one is dropped
+            EncoderSessionPool.Session finished = session;
+            session = null;
+            try {
+                gifWriter.setOutput(null);
+            } finally {
+                if (complete) {
+                    EncoderSessionPool.SHARED.release(finished);
+                } else {
+                    finished.writer.dispose();
+                }
             }
         }
-        IIOMetadataNode node = new IIOMetadataNode(nodeName);
-        rootNode.appendChild(node);
-        return (node);
+    }
+
+    /**
+     * OutputStream writing to ImageOutputStream (used by built-in encoder).
+     */
+    private static class ImageOutputStreamAdapter extends OutputStream {
+        private final ImageOutputStream stream;
+
+        ImageOutputStreamAdapter(ImageOutputStream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            stream.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            stream.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            stream.flush();
+        }
     }
 
     /**
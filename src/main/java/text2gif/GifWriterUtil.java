@@ -4,16 +4,16 @@ import com.sun.istack.internal.NotNull;
 import sun.awt.image.BufferedImageDevice;
 
 import javax.imageio.IIOException;
-import javax.imageio.stream.FileImageOutputStream;
-import javax.imageio.stream.ImageOutputStream;
 import java.awt.image.*;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.FileSystems;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.io.*;
-import java.nio.file.Files;
 
 /**
  * Provides methods for converting text to GIF image
@@ -21,6 +21,10 @@ import java.nio.file.Files;
  */
 public class GifWriterUtil {
     private static final int BUFFER_SIZE = 1024;
+    /**
+     * Size of buffer of output stream
+     */
+    private static final int OUTPUT_BUFFER_SIZE = 64 << 10;
 
     /**
      * Converts text from text file to GIF image
@@ -34,17 +38,91 @@ public class GifWriterUtil {
      */
     public static void writeFile(@NotNull String inputFileName, @NotNull String outputFileName) throws IOException,
             InvalidPathException, SecurityException, IIOException {
+        writeFile(inputFileName, outputFileName, RenderContext.DEFAULT);
+    }
+
+    /**
+     * Converts text from text file to GIF image
+     * @param inputFileName path to input text file (encoding is utf-8)
+     * @param outputFileName path to result GIF (if not exists, it will be created)
+     * @param context render settings
+     * @throws IOException if an I/O error occurs
+     * @throws InvalidPathException if arguments are not path strings
+     * @throws SecurityException if a security manager exists and does not allow access to files
+     * @throws IIOException if no gif ImageWriters are found
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public static void writeFile(@NotNull String inputFileName, @NotNull String outputFileName,
+                                 @NotNull RenderContext context) throws IOException,
+            InvalidPathException, SecurityException, IIOException {
+        writeFile(inputFileName, outputFileName, new ConversionOptions().setRenderContext(context));
+    }
+
+    /**
+     * Converts text from text file to GIF image
+     * @param inputFileName path to input text file (encoding is utf-8)
+     * @param outputFileName path to result GIF (if exists, it will be overwritten)
+     * @param options conversion settings
+     * @return statistics of conversion
+     * @throws IOException if an I/O error occurs
+     * @throws InvalidPathException if arguments are not path strings
+     * @throws SecurityException if a security manager exists and does not allow access to files
+     * @throws IIOException if no gif ImageWriters are found
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public static ConversionStats writeFile(@NotNull String inputFileName, @NotNull String outputFileName,
+                                 @NotNull ConversionOptions options) throws IOException,
+            InvalidPathException, SecurityException, IIOException {
+        try (FileChannel output = openOutput(outputFileName)) {
+            return writeFile(inputFileName, output, options);
+        }
+    }
+
+    /**
+     * Converts text from text file to GIF image written forward-only to stream. Stream is flushed, but not closed.
+     * @param inputFileName path to input text file (encoding is utf-8)
+     * @param output stream for result GIF
+     * @param options conversion settings
+     * @return statistics of conversion
+     * @throws IOException if an I/O error occurs
+     * @throws InvalidPathException if argument is not path string
+     * @throws SecurityException if a security manager exists and does not allow access to file
+     * @throws IIOException if no gif ImageWriters are found
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public static ConversionStats writeFile(@NotNull String inputFileName, @NotNull OutputStream output,
+                                            @NotNull ConversionOptions options) throws IOException,
+            InvalidPathException, SecurityException, IIOException {
+        // Create path of string
+        Path file = FileSystems.getDefault().getPath(inputFileName);
+        // Create reader of mapped file
+        try (Reader reader = new MappedTextReader(file)) {
+            // Convert
+            return convert(reader, output, options);
+        }
+    }
+
+    /**
+     * Converts text from text file to GIF image written to channel. Channel isn't closed.
+     * @param inputFileName path to input text file (encoding is utf-8)
+     * @param output channel for result GIF
+     * @param options conversion settings
+     * @return statistics of conversion
+     * @throws IOException if an I/O error occurs
+     * @throws InvalidPathException if argument is not path string
+     * @throws SecurityException if a security manager exists and does not allow access to file
+     * @throws IIOException if no gif ImageWriters are found
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public static ConversionStats writeFile(@NotNull String inputFileName, @NotNull WritableByteChannel output,
+                                            @NotNull ConversionOptions options) throws IOException,
+            InvalidPathException, SecurityException, IIOException {
         // Create path of string
         Path file = FileSystems.getDefault().getPath(inputFileName);
-        // Set charset
-        Charset charset = StandardCharsets.UTF_8;
-        // Create reader and writer
-        try (BufferedReader reader = Files.newBufferedReader(file, charset);
-            ImageOutputStream output = new FileImageOutputStream(new File(outputFileName));
-            GifSequenceWriter writer =
-                     new GifSequenceWriter(output, TextUtil.IMAGE_TYPE, 1000, false)) {
+        // Create reader of mapped file
+        try (Reader reader = new MappedTextReader(file)) {
             // Convert
-            processAll(reader, writer);
+            return convert(reader, output, options);
         }
     }
 
@@ -59,39 +137,346 @@ public class GifWriterUtil {
      */
     public static void writeString(@NotNull String string, @NotNull String outputFileName) throws IOException,
             SecurityException, IIOException {
-        // Create reader and writer
-        try (StringReader input = new StringReader(string);
-             BufferedReader reader = new BufferedReader(input);
-             ImageOutputStream output = new FileImageOutputStream(new File(outputFileName));
-             GifSequenceWriter writer =
-                     new GifSequenceWriter(output, TextUtil.IMAGE_TYPE, 1000, false)) {
-            // Convert
-            processAll(reader, writer);
+        writeString(string, outputFileName, RenderContext.DEFAULT);
+    }
+
+    /**
+     * Converts String to GIF image
+     * @param string String to convert
+     * @param outputFileName path to result GIF (if not exists, it will be created)
+     * @param context render settings
+     * @throws IOException if an I/O error occurs
+     * @throws SecurityException if a security manager exists and does not allow access to files
+     * @throws IIOException if no gif ImageWriters are found
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public static void writeString(@NotNull String string, @NotNull String outputFileName,
+                                   @NotNull RenderContext context) throws IOException,
+            SecurityException, IIOException {
+        writeString(string, outputFileName, new ConversionOptions().setRenderContext(context));
+    }
+
+    /**
+     * Converts String to GIF image
+     * @param string String to convert
+     * @param outputFileName path to result GIF (if exists, it will be overwritten)
+     * @param options conversion settings
+     * @return statistics of conversion
+     * @throws IOException if an I/O error occurs
+     * @throws SecurityException if a security manager exists and does not allow access to files
+     * @throws IIOException if no gif ImageWriters are found
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public static ConversionStats writeString(@NotNull String string, @NotNull String outputFileName,
+                                   @NotNull ConversionOptions options) throws IOException,
+            SecurityException, IIOException {
+        try (FileChannel output = openOutput(outputFileName)) {
+            return writeString(string, output, options);
+        }
+    }
+
+    /**
+     * Converts String to GIF image written forward-only to stream. Stream is flushed, but not closed.
+     * @param string String to convert
+     * @param output stream for result GIF
+     * @param options conversion settings
+     * @return statistics of conversion
+     * @throws IOException if an I/O error occurs
+     * @throws IIOException if no gif ImageWriters are found
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public static ConversionStats writeString(@NotNull String string, @NotNull OutputStream output,
+                                              @NotNull ConversionOptions options) throws IOException, IIOException {
+        ResultCache cache = options.getResultCache();
+        if (cache == null) {
+            return convert(new StringReader(string), output, options);
+        }
+        long start = System.nanoTime();
+        String key = ResultCache.key(string, options);
+        byte[] bytes = cache.get(key);
+        if (bytes != null) {
+            // Serve stored image
+            output.write(bytes);
+            output.flush();
+            ConversionStats stats = new ConversionStats(options.getListener());
+            stats.addChars(string.length());
+            stats.finishCached(System.nanoTime() - start, bytes.length);
+            return stats;
+        }
+        // Convert in memory and store result
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        ConversionStats stats = convert(new StringReader(string), buffer, options);
+        bytes = buffer.toByteArray();
+        output.write(bytes);
+        output.flush();
+        try {
+            cache.put(key, bytes);
+        } catch (IOException ignored) {
+            // Caching is best effort: image is already written, failure is counted by cache
+        }
+        return stats;
+    }
+
+    /**
+     * Converts String to GIF image written to channel. Channel isn't closed.
+     * @param string String to convert
+     * @param output channel for result GIF
+     * @param options conversion settings
+     * @return statistics of conversion
+     * @throws IOException if an I/O error occurs
+     * @throws IIOException if no gif ImageWriters are found
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public static ConversionStats writeString(@NotNull String string, @NotNull WritableByteChannel output,
+                                              @NotNull ConversionOptions options) throws IOException, IIOException {
+        if (options.getResultCache() != null) {
+            return writeString(string, Channels.newOutputStream(output), options);
+        }
+        return convert(new StringReader(string), output, options);
+    }
+
+    /**
+     * Converts String to GIF image in memory
+     * @param string String to convert
+     * @param options conversion settings
+     * @return bytes of GIF image
+     * @throws IOException if an I/O error occurs
+     * @throws IIOException if no gif ImageWriters are found
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public static byte[] toByteArray(@NotNull String string, @NotNull ConversionOptions options) throws IOException,
+            IIOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeString(string, bytes, options);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Converts text from reader (e.g. standard input) to GIF image. Reader isn't closed.
+     * @param input text to convert
+     * @param outputFileName path to result GIF (if exists, it will be overwritten)
+     * @param options conversion settings
+     * @return statistics of conversion
+     * @throws IOException if an I/O error occurs
+     * @throws SecurityException if a security manager exists and does not allow access to files
+     * @throws IIOException if no gif ImageWriters are found
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public static ConversionStats writeReader(@NotNull Reader input, @NotNull String outputFileName,
+                                              @NotNull ConversionOptions options) throws IOException,
+            SecurityException, IIOException {
+        try (FileChannel output = openOutput(outputFileName)) {
+            return convert(input, output, options);
+        }
+    }
+
+    /**
+     * Converts text from reader to GIF image written forward-only to stream. Reader isn't closed,
+     * stream is flushed, but not closed.
+     * @param input text to convert
+     * @param output stream for result GIF
+     * @param options conversion settings
+     * @return statistics of conversion
+     * @throws IOException if an I/O error occurs
+     * @throws IIOException if no gif ImageWriters are found
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public static ConversionStats writeReader(@NotNull Reader input, @NotNull OutputStream output,
+                                              @NotNull ConversionOptions options) throws IOException, IIOException {
+        return convert(input, output, options);
+    }
+
+    /**
+     * Converts text from reader to GIF image written to stream
+     * @param reader text reader object for input
+     * @param output stream for output (flushed, but not closed)
+     * @param options conversion settings
+     * @return statistics of conversion
+     * @throws IOException if an I/O error occurs
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private static ConversionStats convert(Reader reader, OutputStream output, ConversionOptions options)
+            throws IOException {
+        if (options.getWriteBehindBufferSize() > 0) {
+            return convert(reader, Channels.newChannel(output), options);
+        }
+        // Collect small writes of encoder
+        BufferedOutputStream buffered = new BufferedOutputStream(output, OUTPUT_BUFFER_SIZE);
+        ConversionStats stats = convertTo(reader, buffered, options);
+        buffered.flush();
+        return stats;
+    }
+
+    /**
+     * Converts text from reader to GIF image written to channel, behind encoding if options say so
+     * @param reader text reader object for input
+     * @param output channel for output (not closed)
+     * @param options conversion settings
+     * @return statistics of conversion
+     * @throws IOException if an I/O error occurs
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private static ConversionStats convert(Reader reader, WritableByteChannel output, ConversionOptions options)
+            throws IOException {
+        if (options.getWriteBehindBufferSize() == 0) {
+            return convert(reader, Channels.newOutputStream(output), options);
+        }
+        // Writer thread is stopped even if conversion fails
+        try (WriteBehindOutputStream behind = new WriteBehindOutputStream(output,
+                options.getWriteBehindBufferSize(), options.getWriteBehindBufferCount(), options.getSync())) {
+            return convertTo(reader, behind, options);
+        }
+    }
+
+    /**
+     * Converts text from reader to GIF image written to stream and reports totals to listener of options
+     * @param reader text reader object for input
+     * @param output stream for output (not flushed)
+     * @param options conversion settings
+     * @return statistics of conversion
+     * @throws IOException if an I/O error occurs
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private static ConversionStats convertTo(Reader reader, OutputStream output, ConversionOptions options)
+            throws IOException {
+        ConversionStats stats = new ConversionStats(options.getListener());
+        long start = System.nanoTime();
+        CountingOutputStream counter = new CountingOutputStream(output);
+        long reusedFrames;
+        try (GifSequenceWriter writer = options.createWriter(counter)) {
+            processAll(reader, writer, options, stats);
+            reusedFrames = writer.getReusedFrames();
         }
+        stats.finish(System.nanoTime() - start, counter.getCount(), reusedFrames);
+        return stats;
+    }
+
+    /**
+     * Opens output file for writing, truncating it if exists
+     * @param outputFileName path to file
+     * @return channel of file
+     * @throws IOException if an I/O error occurs
+     * @throws InvalidPathException if argument is not path string
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private static FileChannel openOutput(String outputFileName) throws IOException, InvalidPathException {
+        return FileChannel.open(Paths.get(outputFileName), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING);
     }
 
     /**
      * Converts text from reader to GIF image via writer
      * @param reader text reader object for input
      * @param writer GifSequenceWriter for output
+     * @param options conversion settings
+     * @param stats statistics to fill
      * @throws IOException if an I/O error occurs
      * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
      */
-    private static void processAll(BufferedReader reader, GifSequenceWriter writer) throws IOException {
+    private static void processAll(Reader reader, GifSequenceWriter writer, ConversionOptions options,
+                                   ConversionStats stats) throws IOException {
+        if (options.getSegmentation() != Segmentation.LETTER) {
+            // Frames of several letters
+            new SegmentedConversion(reader, writer, options, stats).run();
+        } else if (options.getForkJoinPool() != null) {
+            // Render and encode segments in parallel
+            new ParallelConversion(reader, writer, options.getRenderContext(), options.getForkJoinPool(),
+                    options.getMaxRunLength(), stats).run();
+        } else if (options.isPipelined()) {
+            // Read, render and encode at the same time
+            new ConversionPipeline(reader, writer, options.getRenderContext(), BUFFER_SIZE,
+                    options.getMaxRunLength(), stats).run();
+        } else {
+            processSequentially(reader, writer, options.getRenderContext(), options.getMaxRunLength(), stats);
+        }
+    }
+
+    /**
+     * Converts text from reader to GIF image via writer in calling thread
+     * @param reader text reader object for input
+     * @param writer GifSequenceWriter for output
+     * @param context render settings
+     * @param maxRunLength maximum number of equal letters written as one frame
+     * @param stats statistics to fill
+     * @throws IOException if an I/O error occurs
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private static void processSequentially(Reader reader, GifSequenceWriter writer, RenderContext context,
+                                            int maxRunLength, ConversionStats stats) throws IOException {
         // Reading buffer
         char[] buffer = new char[BUFFER_SIZE];
-        // Images to write
-        BufferedImage[] images;
-        // Read first chunk
-        int read = reader.read(buffer, 0, BUFFER_SIZE);
-        do {
-            // Convert line to images array
-            images = TextUtil.getImagesFromString(new String(buffer, 0, read));
-            // Add images to output
-            for (BufferedImage image : images) {
-                writer.writeToSequence(image);
+        // Letter of current run and its length
+        int runCodePoint = -1;
+        int runLength = 0;
+        // Number of chars kept from previous chunk (first half of surrogate pair)
+        int carry = 0;
+        int read;
+        long time = System.nanoTime();
+        // Read chunks until end of input
+        while ((read = reader.read(buffer, carry, BUFFER_SIZE - carry)) != -1 || carry > 0) {
+            int length = carry + Math.max(read, 0);
+            stats.chunkRead(length - carry, System.nanoTime() - time);
+            // Don't split surrogate pair between chunks
+            carry = read != -1 && Character.isHighSurrogate(buffer[length - 1]) ? 1 : 0;
+            int end = length - carry;
+            // Add image of every run of letters to output
+            for (int i = 0; i < end; ) {
+                int codePoint = Character.codePointAt(buffer, i, end);
+                i += Character.charCount(codePoint);
+                if (codePoint == runCodePoint && runLength < maxRunLength) {
+                    runLength++;
+                    continue;
+                }
+                if (runLength > 0) {
+                    writeRun(writer, context, runCodePoint, runLength, stats);
+                }
+                runCodePoint = codePoint;
+                runLength = 1;
+            }
+            if (carry > 0) {
+                buffer[0] = buffer[length - 1];
             }
-        // Read new chunk
-        } while((read = reader.read(buffer, 0, BUFFER_SIZE)) == BUFFER_SIZE);
+            time = System.nanoTime();
+        }
+        if (runLength > 0) {
+            writeRun(writer, context, runCodePoint, runLength, stats);
+        }
+    }
+
+    /**
+     * Writes one frame for run of equal letters
+     * @param writer GifSequenceWriter for output
+     * @param context render settings
+     * @param codePoint letter
+     * @param length number of letters in run
+     * @param stats statistics to fill
+     * @throws IOException if an I/O error occurs
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private static void writeRun(GifSequenceWriter writer, RenderContext context, int codePoint, int length,
+                                 ConversionStats stats) throws IOException {
+        GlyphCache cache = TextUtil.getGlyphCache();
+        long start = System.nanoTime();
+        BufferedImage frame;
+        boolean pooled = !cache.isEnabled();
+        if (pooled) {
+            // Paint letter into pooled frame
+            frame = context.acquireFrame();
+            context.paint(codePoint, frame);
+        } else {
+            // Take shared image from glyph cache
+            frame = cache.get(context, codePoint, stats.getGlyphLookups());
+        }
+        long rendered = System.nanoTime();
+        stats.rendered(1, rendered - start);
+        try {
+            // Code point identifies encoded frame
+            writer.writeToSequence(frame, codePoint, length * writer.getTimeBetweenFramesMS());
+        } finally {
+            if (pooled) {
+                context.releaseFrame(frame);
+            }
+        }
+        stats.encoded(1, System.nanoTime() - rendered);
     }
 }
@@ -0,0 +1,312 @@
+package text2gif;
+
+import com.sun.istack.internal.NotNull;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Prebuilt frames of a set of letters stored in a file, which is mapped into memory when opened.
+ * Render context of atlas copies frames of these letters from the file instead of rasterizing them,
+ * and resolves font only when a letter missing in atlas is painted, so short conversions start
+ * without font initialization.
+ * <p>
+ * File is versioned by render settings and Java version (rasterization can differ between versions):
+ * header (magic, format version, settings, Java version, frame size, bytes of frame, number of letters),
+ * sorted code points, then raw pixel data of frames in the same order. Installed font files are not part
+ * of the version: an atlas built before fonts of its chain were installed, removed or updated keeps the old
+ * letters (or the boxes of a missing font), so atlases must be rebuilt when fonts change.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+public class GlyphAtlas {
+    /**
+     * First bytes of atlas file ("T2GA").
+     */
+    private static final int MAGIC = 0x54324741;
+    /**
+     * Version of file layout.
+     */
+    private static final int VERSION = 2;
+
+    private final String fontName;
+    private final int fontStyle;
+    private final int fontSize;
+    private final Color foreground;
+    private final Color background;
+    private final FrameFormat format;
+    private final RenderQuality quality;
+    private final int frameSize;
+    /**
+     * Sorted code points of stored frames.
+     */
+    private final int[] codePoints;
+    /**
+     * Size of pixel data of one frame in bytes.
+     */
+    private final int frameBytes;
+    /**
+     * Mapped pixel data of all frames.
+     */
+    private final ByteBuffer data;
+    /**
+     * Render context taking frames from this atlas.
+     */
+    private final RenderContext context;
+
+    private GlyphAtlas(String fontName, int fontStyle, int fontSize, Color foreground, Color background,
+                       FrameFormat format, RenderQuality quality, int frameSize, int[] codePoints, int frameBytes,
+                       ByteBuffer data) {
+        this.fontName = fontName;
+        this.fontStyle = fontStyle;
+        this.fontSize = fontSize;
+        this.foreground = foreground;
+        this.background = background;
+        this.format = format;
+        this.quality = quality;
+        this.frameSize = frameSize;
+        this.codePoints = codePoints;
+        this.frameBytes = frameBytes;
+        this.data = data;
+        this.context = new RenderContext(fontName, fontStyle, fontSize, foreground, background, format,
+                quality, frameSize, this);
+    }
+
+    /**
+     * Renders letters with given settings and writes them to atlas file.
+     * @param context render settings
+     * @param codePoints letters to store (duplicates are ignored)
+     * @param file atlas file (overwritten if exists)
+     * @throws IOException if an I/O error occurs
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public static void build(@NotNull RenderContext context, @NotNull int[] codePoints, @NotNull Path file)
+            throws IOException {
+        int[] sorted = Arrays.stream(codePoints).filter(Character::isValidCodePoint).sorted().distinct().toArray();
+        BufferedImage frame = context.createFrame();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            // Write header
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(context.getFontName());
+            out.writeInt(context.getFontStyle());
+            out.writeInt(context.getFontSize());
+            out.writeInt(context.getForeground().getRGB());
+            out.writeInt(context.getBackground().getRGB());
+            out.writeUTF(context.getFormat().name());
+            out.writeUTF(context.getQuality().name());
+            out.writeUTF(javaVersion());
+            out.writeInt(context.getFrameSize());
+            out.writeInt(frameBytes(frame));
+            out.writeInt(sorted.length);
+            // Write index of letters
+            for (int codePoint : sorted) {
+                out.writeInt(codePoint);
+            }
+            // Write pixels of every letter
+            for (int codePoint : sorted) {
+                context.paint(codePoint, frame);
+                DataBuffer buffer = frame.getRaster().getDataBuffer();
+                if (buffer instanceof DataBufferInt) {
+                    for (int pixel : ((DataBufferInt) buffer).getData()) {
+                        out.writeInt(pixel);
+                    }
+                } else {
+                    out.write(((DataBufferByte) buffer).getData());
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens atlas file, mapping it into memory.
+     * @param file atlas file
+     * @return atlas
+     * @throws IOException if file can't be read, isn't atlas or was built by different version
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public static GlyphAtlas open(@NotNull Path file) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            // Check version
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a glyph atlas: " + file);
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported glyph atlas version " + version + ": " + file);
+            }
+            // Read settings
+            String fontName = readUTF(buffer);
+            int fontStyle = buffer.getInt();
+            int fontSize = buffer.getInt();
+            Color foreground = new Color(buffer.getInt(), true);
+            Color background = new Color(buffer.getInt(), true);
+            FrameFormat format = FrameFormat.valueOf(readUTF(buffer));
+            RenderQuality quality = RenderQuality.valueOf(readUTF(buffer));
+            String javaVersion = readUTF(buffer);
+            if (!javaVersion.equals(javaVersion())) {
+                throw new IOException("Glyph atlas was built by Java " + javaVersion + ", rebuild it: " + file);
+            }
+            int frameSize = buffer.getInt();
+            int frameBytes = buffer.getInt();
+            int count = buffer.getInt();
+            // Read index of letters
+            int[] codePoints = new int[count];
+            buffer.asIntBuffer().get(codePoints);
+            buffer.position(buffer.position() + count * 4);
+            ByteBuffer data = buffer.slice();
+            if ((long) count * frameBytes > data.remaining()) {
+                throw new IOException("Glyph atlas is truncated: " + file);
+            }
+            return new GlyphAtlas(fontName, fontStyle, fontSize, foreground, background, format, quality, frameSize,
+                    codePoints, frameBytes, data);
+        } catch (RuntimeException x) {
+            throw new IOException("Glyph atlas is corrupted: " + file, x);
+        }
+    }
+
+    /**
+     * Returns render context taking letters of this atlas from file. Font is resolved only
+     * when a letter missing in atlas is painted.
+     * @return render context equal to context atlas was built with
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public RenderContext getContext() {
+        return context;
+    }
+
+    /**
+     * Returns true if atlas was built with the same settings as given context.
+     * @param context render settings
+     * @return true if frames of atlas are frames of context
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public boolean matches(@NotNull RenderContext context) {
+        return this.context.equals(context);
+    }
+
+    /**
+     * @return number of letters in atlas
+     */
+    public int size() {
+        return codePoints.length;
+    }
+
+    /**
+     * Returns true if atlas has frame of letter.
+     * @param codePoint Unicode code point
+     * @return true if frame is stored
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public boolean contains(int codePoint) {
+        return Arrays.binarySearch(codePoints, codePoint) >= 0;
+    }
+
+    /**
+     * Copies stored frame of letter into frame of atlas context.
+     * @param codePoint Unicode code point
+     * @param frame frame created by context of this atlas
+     * @return false if atlas has no such letter (frame isn't changed)
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    boolean copyTo(int codePoint, BufferedImage frame) {
+        int index = Arrays.binarySearch(codePoints, codePoint);
+        if (index < 0) {
+            return false;
+        }
+        // Own view of shared buffer, so threads don't move positions of each other
+        ByteBuffer view = data.duplicate();
+        view.position(index * frameBytes).limit((index + 1) * frameBytes);
+        DataBuffer buffer = frame.getRaster().getDataBuffer();
+        if (buffer instanceof DataBufferInt) {
+            IntBuffer ints = view.asIntBuffer();
+            ints.get(((DataBufferInt) buffer).getData());
+        } else {
+            view.get(((DataBufferByte) buffer).getData());
+        }
+        return true;
+    }
+
+    /**
+     * Returns size of pixel data of frame in bytes.
+     * @param frame frame
+     * @return size in bytes
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private static int frameBytes(BufferedImage frame) {
+        DataBuffer buffer = frame.getRaster().getDataBuffer();
+        if (buffer instanceof DataBufferInt) {
+            return ((DataBufferInt) buffer).getData().length * 4;
+        }
+        return ((DataBufferByte) buffer).getData().length;
+    }
+
+    /**
+     * Reads string written by DataOutputStream.writeUTF (ASCII and common letters only
+     * are expected, modified UTF-8 of other chars is decoded as UTF-8).
+     * @param buffer buffer to read from
+     * @return string
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private static String readUTF(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return version of Java rasterizing letters
+     */
+    private static String javaVersion() {
+        return System.getProperty("java.vendor") + " " + System.getProperty("java.version");
+    }
+
+    public String getFontName() {
+        return fontName;
+    }
+
+    public int getFontStyle() {
+        return fontStyle;
+    }
+
+    public int getFontSize() {
+        return fontSize;
+    }
+
+    public Color getForeground() {
+        return foreground;
+    }
+
+    public Color getBackground() {
+        return background;
+    }
+
+    public FrameFormat getFormat() {
+        return format;
+    }
+
+    public RenderQuality getQuality() {
+        return quality;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+}
@@ -0,0 +1,289 @@
+package text2gif;
+
+import com.sun.istack.internal.NotNull;
+import text2gif.annotations.NotNegative;
+
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thread-safe size-bounded cache of rendered glyph frames with LRU eviction.
+ * Cached images are shared between all callers and must not be modified.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+public class GlyphCache {
+    /**
+     * Default maximum number of cached frames.
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+    /**
+     * Reusable lookup keys (one per thread).
+     */
+    private static final ThreadLocal<Key> PROBE = ThreadLocal.withInitial(() -> new Key(RenderContext.DEFAULT, 0));
+
+    /**
+     * Cached frames in access order (eldest entry is least recently used).
+     */
+    private final LinkedHashMap<Key, BufferedImage> frames;
+    /**
+     * Maximum number of cached frames.
+     */
+    private int capacity;
+    /**
+     * Number of lookups served from the cache.
+     */
+    private long hits;
+    /**
+     * Number of lookups which required rendering.
+     */
+    private long misses;
+    /**
+     * Number of frames removed to keep the cache bounded.
+     */
+    private long evictions;
+
+    /**
+     * Creates empty cache.
+     * @param capacity maximum number of cached frames (0 disables caching)
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public GlyphCache(@NotNegative int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+        this.capacity = capacity;
+        this.frames = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns cached frame of letter, rendering it on a miss.
+     * Lookup of cached frame doesn't allocate.
+     * @param context render settings
+     * @param codePoint Unicode code point to paint
+     * @return frame of glyph (shared, must not be modified)
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public BufferedImage get(@NotNull RenderContext context, int codePoint) {
+        return get(context, codePoint, null);
+    }
+
+    /**
+     * Returns cached frame of letter, rendering it on a miss, and counts the lookup for its caller.
+     * Lookup of cached frame doesn't allocate.
+     * @param context render settings
+     * @param codePoint Unicode code point to paint
+     * @param lookups counters of caller (null if lookup is counted by cache only)
+     * @return frame of glyph (shared, must not be modified)
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public BufferedImage get(@NotNull RenderContext context, int codePoint, Lookups lookups) {
+        // Look up frame with reusable key of this thread
+        Key probe = PROBE.get().set(context, codePoint);
+        synchronized (this) {
+            BufferedImage frame = frames.get(probe);
+            if (frame != null) {
+                hits++;
+                if (lookups != null) {
+                    lookups.hits++;
+                }
+                return frame;
+            }
+            misses++;
+        }
+        if (lookups != null) {
+            lookups.misses++;
+        }
+        // Render outside of the lock, so other threads are not blocked by rasterization
+        BufferedImage frame = context.createFrame();
+        context.paint(codePoint, frame);
+        // Store frame (another thread may have rendered the same glyph meanwhile)
+        synchronized (this) {
+            if (capacity == 0) {
+                return frame;
+            }
+            BufferedImage existing = frames.get(probe);
+            if (existing != null) {
+                return existing;
+            }
+            frames.put(new Key(context, codePoint), frame);
+            trim();
+        }
+        return frame;
+    }
+
+    /**
+     * Returns true if cache stores frames.
+     * @return false if capacity is 0
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public synchronized boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /**
+     * Changes maximum number of cached frames, evicting least recently used frames if needed.
+     * @param capacity maximum number of cached frames (0 disables caching)
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public synchronized void setCapacity(@NotNegative int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+        this.capacity = capacity;
+        trim();
+    }
+
+    /**
+     * @return maximum number of cached frames
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return number of cached frames
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public synchronized int size() {
+        return frames.size();
+    }
+
+    /**
+     * @return number of lookups served from the cache
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of lookups which required rendering
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return number of frames removed to keep the cache bounded
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Removes all frames and resets counters.
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public synchronized void clear() {
+        frames.clear();
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    /**
+     * Removes least recently used frames until size fits capacity.
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void trim() {
+        Iterator<Map.Entry<Key, BufferedImage>> it = frames.entrySet().iterator();
+        while (frames.size() > capacity && it.hasNext()) {
+            it.next();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Lookups of one caller, such as one conversion, unlike counters of cache shared by all callers.
+     * Not thread-safe: every thread counts into its own instance.
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public static final class Lookups {
+        private long hits;
+        private long misses;
+
+        /**
+         * Adds lookups of another caller.
+         * @param other counters to add
+         * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+         */
+        public void add(@NotNull Lookups other) {
+            hits += other.hits;
+            misses += other.misses;
+        }
+
+        /**
+         * @return number of lookups served from the cache
+         */
+        public long getHits() {
+            return hits;
+        }
+
+        /**
+         * @return number of lookups which required rendering
+         */
+        public long getMisses() {
+            return misses;
+        }
+    }
+
+    /**
+     * Identifies rendered frame: code point and render context (font, size and colors).
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public static final class Key {
+        private RenderContext context;
+        private int codePoint;
+
+        /**
+         * Creates glyph key.
+         * @param context render settings
+         * @param codePoint Unicode code point to paint
+         * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+         */
+        public Key(@NotNull RenderContext context, int codePoint) {
+            this.context = context;
+            this.codePoint = codePoint;
+        }
+
+        /**
+         * Reuses key object for lookup (only for probe keys, which are never stored in cache).
+         * @param context render settings
+         * @param codePoint Unicode code point
+         * @return this key
+         * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+         */
+        private Key set(RenderContext context, int codePoint) {
+            this.context = context;
+            this.codePoint = codePoint;
+            return this;
+        }
+
+        public RenderContext getContext() {
+            return context;
+        }
+
+        public int getCodePoint() {
+            return codePoint;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return codePoint == key.codePoint && context.equals(key.context);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * context.hashCode() + codePoint;
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package text2gif;
+
+import com.sun.istack.internal.NotNull;
+import text2gif.annotations.NotNegative;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Encoded frames of an editable text, kept between conversions. Edits of the text invalidate only frames
+ * around the edited range, update re-encodes only them, and writing GIF just copies encoded blocks, so
+ * converting a large text after a small edit costs about as much as writing its bytes. Works only with
+ * built-in encoder backend. Thread-safe.
+ * <p>
+ * Frames are kept like a gap buffer: frames before the invalidated range (hole) store their start offset,
+ * frames after it store offset from the end of text, so an edit doesn't move any frame.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+public class IncrementalConversion {
+    /**
+     * Maximum number of distinct encoded blocks kept for reuse.
+     */
+    private static final int MAX_BLOCKS = 4096;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final ConversionOptions options;
+    private final RenderContext context;
+    private final int maxRunLength;
+    private final GifEncoder encoder;
+    /**
+     * Encoded blocks by code point (and code point of previous frame for delta frames),
+     * least recently used first.
+     */
+    private final LinkedHashMap<Long, byte[]> blocks = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * Frames: start offset, letter, number of letters and encoded block. Frames before hole are at
+     * the beginning of arrays, frames after hole are at the end.
+     */
+    private int[] starts = new int[INITIAL_CAPACITY];
+    private int[] keys = new int[INITIAL_CAPACITY];
+    private int[] counts = new int[INITIAL_CAPACITY];
+    private byte[][] frameBlocks = new byte[INITIAL_CAPACITY][];
+    private int before;
+    private int after;
+    /**
+     * Length of text in chars.
+     */
+    private int length;
+    /**
+     * Range of text without frames.
+     */
+    private int holeStart;
+    private int holeEnd;
+    /**
+     * Number of edits, text passed to update must be of the current version.
+     */
+    private int version;
+    /**
+     * Number of frames encoded by all updates.
+     */
+    private long encodedFrames;
+    /**
+     * Total size of blocks of frames.
+     */
+    private long blockBytes;
+
+    /**
+     * Creates conversion of empty text.
+     * @param options conversion settings (backend must be built-in encoder, settings must not be changed later)
+     * @throws IllegalArgumentException if backend is not built-in encoder or frames aren't single letters
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public IncrementalConversion(@NotNull ConversionOptions options) {
+        if (options.getBackend() != GifSequenceWriter.Backend.NATIVE) {
+            throw new IllegalArgumentException("Incremental conversion needs built-in encoder backend");
+        }
+        if (options.getSegmentation() != Segmentation.LETTER) {
+            throw new IllegalArgumentException("Incremental conversion needs one frame per letter");
+        }
+        this.options = options;
+        this.context = options.getRenderContext();
+        this.maxRunLength = options.getMaxRunLength();
+        this.encoder = new GifEncoder(context.getPalette());
+        this.encoder.setDeltaFrames(options.isDeltaFrames());
+    }
+
+    /**
+     * Invalidates frames changed by edit of text: frames of edited range and the frames next to it
+     * (runs of letters can join or split there, and delta frame depends on previous letter).
+     * @param offset offset of edit in text before edit
+     * @param removed number of removed chars
+     * @param inserted number of inserted chars
+     * @throws IndexOutOfBoundsException if removed range is out of text
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public synchronized void invalidate(@NotNegative int offset, @NotNegative int removed,
+                                        @NotNegative int inserted) {
+        if (offset < 0 || removed < 0 || inserted < 0 || offset + removed > length) {
+            throw new IndexOutOfBoundsException("Edit " + offset + "+" + removed + " is out of text of length "
+                    + length);
+        }
+        // Chars next to edit belong to affected frames
+        int first = Math.max(offset - 1, 0);
+        int last = Math.min(offset + removed + 1, length);
+        if (holeStart == holeEnd) {
+            // Move empty hole to edit without dropping frames
+            while (before > 0 && holeStart > first) {
+                holeStart = holeEnd = starts[--before];
+                moveFrame(before, starts.length - ++after, -length);
+            }
+            while (after > 0 && holeEnd <= first) {
+                moveFrame(starts.length - after--, before++, length);
+                holeStart = holeEnd = after > 0 ? starts[starts.length - after] + length : length;
+            }
+        }
+        // Drop frames overlapping affected range
+        while (before > 0 && holeStart > first) {
+            blockBytes -= frameBlocks[--before].length;
+            frameBlocks[before] = null;
+            holeStart = starts[before];
+        }
+        while (after > 0 && holeEnd < last) {
+            int index = starts.length - after--;
+            blockBytes -= frameBlocks[index].length;
+            frameBlocks[index] = null;
+            holeEnd = after > 0 ? starts[starts.length - after] + length : length;
+        }
+        length += inserted - removed;
+        holeEnd += inserted - removed;
+        version++;
+    }
+
+    /**
+     * Creates frames of invalidated range, encoding only frames whose blocks aren't known yet.
+     * @param text whole text of the current version
+     * @return number of encoded frames
+     * @throws IllegalArgumentException if length of text isn't length of the current version
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public synchronized int update(@NotNull CharSequence text) {
+        if (text.length() != length) {
+            throw new IllegalArgumentException("Text of length " + text.length() + " is not the current version");
+        }
+        long encoded = encodedFrames;
+        update(holeStart, text.subSequence(holeStart, holeEnd), version);
+        return (int) (encodedFrames - encoded);
+    }
+
+    /**
+     * Creates frames of the beginning of invalidated range, encoding only frames whose blocks aren't known yet,
+     * so long range can be updated by chunks. Text, its start and version must be taken together,
+     * e.g. under read lock of document.
+     * @param start start of text (see getHoleStart)
+     * @param holeText text of invalidated range or its beginning (not ending with half of surrogate pair)
+     * @param version version the text was taken from
+     * @return false if text was edited or updated since that version (nothing is updated)
+     * @throws IllegalArgumentException if text is longer than invalidated range
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public synchronized boolean update(@NotNegative int start, @NotNull CharSequence holeText, int version) {
+        if (version != this.version || start != holeStart) {
+            return false;
+        }
+        if (holeText.length() > holeEnd - holeStart) {
+            throw new IllegalArgumentException("Text of length " + holeText.length()
+                    + " is longer than invalidated range");
+        }
+        GlyphCache cache = TextUtil.getGlyphCache();
+        boolean cached = cache.isEnabled();
+        for (int i = 0; i < holeText.length(); ) {
+            int codePoint = Character.codePointAt(holeText, i);
+            int offset = holeStart + i;
+            i += Character.charCount(codePoint);
+            if (before > 0 && keys[before - 1] == codePoint && counts[before - 1] < maxRunLength) {
+                // Continue run
+                counts[before - 1]++;
+                continue;
+            }
+            int previous = before > 0 ? keys[before - 1] : -1;
+            if (before + after == starts.length) {
+                grow();
+            }
+            starts[before] = offset;
+            keys[before] = codePoint;
+            counts[before] = 1;
+            frameBlocks[before] = block(previous, codePoint, cache, cached);
+            blockBytes += frameBlocks[before].length;
+            before++;
+        }
+        holeStart += holeText.length();
+        return true;
+    }
+
+    /**
+     * Writes GIF of whole text.
+     * @param output stream to write to (not closed)
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalStateException if text was edited after last update
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public void write(@NotNull OutputStream output) throws IOException {
+        write(output, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Writes GIF of frames overlapping range of text.
+     * @param output stream to write to (not closed)
+     * @param from start of range
+     * @param to end of range (exclusive, clamped to length of text)
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalStateException if text was edited after last update
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public synchronized void write(@NotNull OutputStream output, @NotNegative int from, @NotNegative int to)
+            throws IOException {
+        if (isDirty()) {
+            throw new IllegalStateException("Frames are not updated after edit");
+        }
+        GlyphCache cache = TextUtil.getGlyphCache();
+        int size = context.getFrameSize();
+        int delay = options.getFrameDelay();
+        GifSequenceWriter writer = options.createWriter(output);
+        int count = before + after;
+        int first = Math.max(frameAt(from), 0);
+        for (int i = first; i < count && start(i) < to; i++) {
+            int index = index(i);
+            // Delta frame without its previous frame is written whole
+            byte[] block = i == first && i > 0 && options.isDeltaFrames()
+                    ? block(-1, keys[index], cache, cache.isEnabled()) : frameBlocks[index];
+            writer.writeEncodedFrame(block, size, size, counts[index] * delay);
+        }
+        writer.close();
+    }
+
+    /**
+     * Returns block of frame, encoding it if it isn't known.
+     * @param previous code point of previous frame (-1 if frame is first)
+     * @param codePoint code point of frame
+     * @param cache glyph cache
+     * @param cached is true if frames are taken from glyph cache
+     * @return encoded block
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private byte[] block(int previous, int codePoint, GlyphCache cache, boolean cached) {
+        boolean delta = options.isDeltaFrames();
+        long key = delta ? (long) (previous + 1) << 32 | codePoint : codePoint;
+        byte[] block = blocks.get(key);
+        if (block != null) {
+            return block;
+        }
+        // Render and encode frame
+        BufferedImage frame = render(codePoint, cache, cached);
+        BufferedImage previousFrame = delta && previous >= 0 ? render(previous, cache, cached) : null;
+        block = delta ? encoder.encodeFrame(frame, previousFrame, options.getFrameDelay())
+                : encoder.encodeFrame(frame, options.getFrameDelay());
+        if (!cached) {
+            context.releaseFrame(frame);
+            if (previousFrame != null) {
+                context.releaseFrame(previousFrame);
+            }
+        }
+        blocks.put(key, block);
+        if (blocks.size() > MAX_BLOCKS) {
+            // Drop least recently used block
+            Iterator<Long> it = blocks.keySet().iterator();
+            it.next();
+            it.remove();
+        }
+        encodedFrames++;
+        return block;
+    }
+
+    private BufferedImage render(int codePoint, GlyphCache cache, boolean cached) {
+        if (cached) {
+            return cache.get(context, codePoint);
+        }
+        BufferedImage frame = context.acquireFrame();
+        context.paint(codePoint, frame);
+        return frame;
+    }
+
+    /**
+     * Returns index in arrays of frame.
+     * @param i number of frame in text order
+     * @return index in arrays
+     */
+    private int index(int i) {
+        return i < before ? i : i + starts.length - before - after;
+    }
+
+    /**
+     * Returns start offset of frame.
+     * @param i number of frame in text order
+     * @return offset in text
+     */
+    private int start(int i) {
+        return i < before ? starts[i] : starts[index(i)] + length;
+    }
+
+    /**
+     * Returns number of frame containing offset. Called when there's no hole.
+     * @param offset offset in text
+     * @return number of frame in text order or -1 if there are no frames
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private int frameAt(int offset) {
+        int low = 0;
+        int high = before + after - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (start(middle) <= offset) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low - 1;
+    }
+
+    /**
+     * Moves frame between sides of hole.
+     * @param from index of frame
+     * @param to new index of frame
+     * @param shift change of stored offset
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void moveFrame(int from, int to, int shift) {
+        starts[to] = starts[from] + shift;
+        if (from == to) {
+            // Arrays are full, frame stays in place
+            return;
+        }
+        keys[to] = keys[from];
+        counts[to] = counts[from];
+        frameBlocks[to] = frameBlocks[from];
+        frameBlocks[from] = null;
+    }
+
+    /**
+     * Doubles capacity of frame arrays, keeping frames after hole at the end.
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void grow() {
+        int capacity = starts.length * 2;
+        int tail = capacity - after;
+        int oldTail = starts.length - after;
+        starts = grow(starts, capacity, oldTail, tail);
+        keys = grow(keys, capacity, oldTail, tail);
+        counts = grow(counts, capacity, oldTail, tail);
+        byte[][] newBlocks = new byte[capacity][];
+        System.arraycopy(frameBlocks, 0, newBlocks, 0, before);
+        System.arraycopy(frameBlocks, oldTail, newBlocks, tail, after);
+        frameBlocks = newBlocks;
+    }
+
+    private int[] grow(int[] array, int capacity, int oldTail, int tail) {
+        int[] result = new int[capacity];
+        System.arraycopy(array, 0, result, 0, before);
+        System.arraycopy(array, oldTail, result, tail, after);
+        return result;
+    }
+
+    /**
+     * @return true if text was edited after last update
+     */
+    public synchronized boolean isDirty() {
+        return holeStart != holeEnd;
+    }
+
+    /**
+     * @return start of range of text to pass to update
+     */
+    public synchronized int getHoleStart() {
+        return holeStart;
+    }
+
+    /**
+     * @return end of range of text to pass to update
+     */
+    public synchronized int getHoleEnd() {
+        return holeEnd;
+    }
+
+    /**
+     * @return number of edits
+     */
+    public synchronized int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return length of text in chars
+     */
+    public synchronized int getLength() {
+        return length;
+    }
+
+    /**
+     * @return number of frames
+     */
+    public synchronized int getFrameCount() {
+        return before + after;
+    }
+
+    /**
+     * @return total size of encoded frames in bytes (size of GIF without header)
+     */
+    public synchronized long getBlockBytes() {
+        return blockBytes;
+    }
+
+    /**
+     * @return number of frames encoded by all updates
+     */
+    public synchronized long getEncodedFrames() {
+        return encodedFrames;
+    }
+}
@@ -0,0 +1,145 @@
+package text2gif;
+
+import com.sun.istack.internal.NotNull;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Listener emitting JDK Flight Recorder events for every stage of conversion, so conversion can be
+ * watched in JDK Mission Control or exported from recording (e.g. -XX:StartFlightRecording).
+ * Events are only built while they are enabled in recording. Requires JDK with jdk.jfr module
+ * (JDK 8u262 or newer).
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+public class JfrConversionListener implements ConversionListener {
+    /**
+     * Shared instance (listener has no state).
+     */
+    public static final JfrConversionListener INSTANCE = new JfrConversionListener();
+
+    @Name("text2gif.ChunkRead")
+    @Label("Chunk Read")
+    @Category("text2gif")
+    @Description("Chunk of input text read")
+    @StackTrace(false)
+    static class ChunkReadEvent extends Event {
+        @Label("Chars")
+        int chars;
+        @Label("Read Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long nanos;
+    }
+
+    @Name("text2gif.FramesRendered")
+    @Label("Frames Rendered")
+    @Category("text2gif")
+    @Description("Frames taken from glyph cache or painted")
+    @StackTrace(false)
+    static class FramesRenderedEvent extends Event {
+        @Label("Frames")
+        int frames;
+        @Label("Render Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long nanos;
+    }
+
+    @Name("text2gif.FramesEncoded")
+    @Label("Frames Encoded")
+    @Category("text2gif")
+    @Description("Frames encoded and written to output")
+    @StackTrace(false)
+    static class FramesEncodedEvent extends Event {
+        @Label("Frames")
+        int frames;
+        @Label("Encode Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long nanos;
+    }
+
+    @Name("text2gif.Conversion")
+    @Label("Conversion")
+    @Category("text2gif")
+    @Description("Totals of finished conversion")
+    @StackTrace(false)
+    static class ConversionEvent extends Event {
+        @Label("Chars")
+        long chars;
+        @Label("Frames")
+        long frames;
+        @Label("Bytes Written")
+        @DataAmount
+        long bytes;
+        @Label("Glyph Cache Hits")
+        long glyphHits;
+        @Label("Glyph Cache Misses")
+        long glyphMisses;
+        @Label("Reused Frames")
+        long reusedFrames;
+        @Label("Read Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long readNanos;
+        @Label("Render Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long renderNanos;
+        @Label("Encode Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long encodeNanos;
+        @Label("Wall Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long wallNanos;
+    }
+
+    @Override
+    public void chunkRead(int chars, long nanos) {
+        ChunkReadEvent event = new ChunkReadEvent();
+        if (event.isEnabled()) {
+            event.chars = chars;
+            event.nanos = nanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void framesRendered(int frames, long nanos) {
+        FramesRenderedEvent event = new FramesRenderedEvent();
+        if (event.isEnabled()) {
+            event.frames = frames;
+            event.nanos = nanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void framesEncoded(int frames, long nanos) {
+        FramesEncodedEvent event = new FramesEncodedEvent();
+        if (event.isEnabled()) {
+            event.frames = frames;
+            event.nanos = nanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void conversionFinished(@NotNull ConversionStats stats) {
+        ConversionEvent event = new ConversionEvent();
+        if (event.isEnabled()) {
+            event.chars = stats.getChars();
+            event.frames = stats.getFrames();
+            event.bytes = stats.getBytes();
+            event.glyphHits = stats.getGlyphHits();
+            event.glyphMisses = stats.getGlyphMisses();
+            event.reusedFrames = stats.getReusedFrames();
+            event.readNanos = stats.getReadNanos();
+            event.renderNanos = stats.getRenderNanos();
+            event.encodeNanos = stats.getEncodeNanos();
+            event.wallNanos = stats.getWallNanos();
+            event.commit();
+        }
+    }
+}
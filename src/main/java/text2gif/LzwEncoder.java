@@ -0,0 +1,245 @@
+package text2gif;
+
+import java.util.Arrays;
+
+/**
+ * GIF flavour of LZW compression. String table is an open-addressed hash table of primitive arrays,
+ * output goes to reusable byte buffer already split into GIF data sub-blocks.
+ * Not thread-safe: every encoder should be used by one thread at a time.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+final class LzwEncoder {
+    /**
+     * Maximum code width in GIF.
+     */
+    private static final int MAX_BITS = 12;
+    /**
+     * Number of codes available with MAX_BITS.
+     */
+    private static final int MAX_CODES = 1 << MAX_BITS;
+    /**
+     * Size of hash table (power of two, at least twice as large as string table).
+     */
+    private static final int HASH_SIZE = 1 << 13;
+    /**
+     * Maximum length of data sub-block.
+     */
+    private static final int BLOCK_SIZE = 255;
+
+    /**
+     * Keys of hash table: (suffix << MAX_BITS) | prefix, -1 if slot is empty.
+     */
+    private final int[] hashKeys = new int[HASH_SIZE];
+    /**
+     * Codes of hash table.
+     */
+    private final short[] hashCodes = new short[HASH_SIZE];
+
+    /**
+     * Output buffer.
+     */
+    private byte[] out = new byte[1 << 12];
+    /**
+     * Number of used bytes of output buffer.
+     */
+    private int outLength;
+    /**
+     * Position of length byte of current sub-block.
+     */
+    private int blockStart;
+
+    private int bitBuffer;
+    private int bitCount;
+    private int codeSize;
+    private int initCodeSize;
+    private int clearCode;
+    private int nextCode;
+    private boolean clearFlag;
+
+    /**
+     * Compresses pixels and appends image data (minimum code size, sub-blocks and block terminator) to buffer.
+     * @param pixels palette indices
+     * @param length number of pixels
+     * @param minCodeSize LZW minimum code size (2..8)
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    void encode(byte[] pixels, int length, int minCodeSize) {
+        // Reset state
+        initCodeSize = minCodeSize + 1;
+        codeSize = initCodeSize;
+        clearCode = 1 << minCodeSize;
+        nextCode = clearCode + 2;
+        clearFlag = false;
+        bitBuffer = 0;
+        bitCount = 0;
+        Arrays.fill(hashKeys, -1);
+        // Write minimum code size and open first sub-block
+        ensure(1);
+        out[outLength++] = (byte) minCodeSize;
+        openBlock();
+
+        output(clearCode);
+        if (length > 0) {
+            int prefix = pixels[0] & 0xFF;
+            for (int i = 1; i < length; i++) {
+                int suffix = pixels[i] & 0xFF;
+                int key = (suffix << MAX_BITS) | prefix;
+                // Look up string prefix + suffix
+                int slot = hash(key);
+                int found = -1;
+                while (hashKeys[slot] != -1) {
+                    if (hashKeys[slot] == key) {
+                        found = hashCodes[slot];
+                        break;
+                    }
+                    slot = (slot + 1) & (HASH_SIZE - 1);
+                }
+                if (found >= 0) {
+                    prefix = found;
+                    continue;
+                }
+                // String is new: write prefix and add string to table
+                output(prefix);
+                prefix = suffix;
+                if (nextCode < MAX_CODES) {
+                    hashKeys[slot] = key;
+                    hashCodes[slot] = (short) nextCode++;
+                } else {
+                    // Table is full: start again
+                    Arrays.fill(hashKeys, -1);
+                    nextCode = clearCode + 2;
+                    clearFlag = true;
+                    output(clearCode);
+                }
+            }
+            output(prefix);
+        }
+        output(clearCode + 1);
+        // Flush remaining bits
+        if (bitCount > 0) {
+            writeByte(bitBuffer & 0xFF);
+            bitBuffer = 0;
+            bitCount = 0;
+        }
+        closeBlock();
+        // Block terminator
+        ensure(1);
+        out[outLength++] = 0;
+    }
+
+    /**
+     * Writes code and updates code width.
+     * @param code code to write
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void output(int code) {
+        bitBuffer |= code << bitCount;
+        bitCount += codeSize;
+        while (bitCount >= 8) {
+            writeByte(bitBuffer & 0xFF);
+            bitBuffer >>>= 8;
+            bitCount -= 8;
+        }
+        // Decoder widens codes as soon as next free code doesn't fit
+        if (clearFlag) {
+            codeSize = initCodeSize;
+            clearFlag = false;
+        } else if (nextCode > (1 << codeSize) - 1 && codeSize < MAX_BITS) {
+            codeSize++;
+        }
+    }
+
+    /**
+     * Appends byte to current sub-block, starting new one when it is full.
+     * @param b byte to write
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void writeByte(int b) {
+        if (outLength - blockStart - 1 == BLOCK_SIZE) {
+            closeBlock();
+            openBlock();
+        }
+        ensure(1);
+        out[outLength++] = (byte) b;
+    }
+
+    private void openBlock() {
+        ensure(1);
+        blockStart = outLength++;
+    }
+
+    private void closeBlock() {
+        int size = outLength - blockStart - 1;
+        if (size == 0) {
+            // Empty sub-block would terminate data, drop it
+            outLength = blockStart;
+        } else {
+            out[blockStart] = (byte) size;
+        }
+    }
+
+    private static int hash(int key) {
+        return (key * 0x9E3779B1 >>> 19) & (HASH_SIZE - 1);
+    }
+
+    /**
+     * Appends bytes to buffer.
+     * @param bytes bytes to append
+     * @param offset offset in bytes
+     * @param length number of bytes
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    void append(byte[] bytes, int offset, int length) {
+        ensure(length);
+        System.arraycopy(bytes, offset, out, outLength, length);
+        outLength += length;
+    }
+
+    /**
+     * Appends byte to buffer.
+     * @param b byte to append
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    void append(int b) {
+        ensure(1);
+        out[outLength++] = (byte) b;
+    }
+
+    /**
+     * Appends little-endian 16-bit value to buffer.
+     * @param value value to append
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    void appendShort(int value) {
+        ensure(2);
+        out[outLength++] = (byte) value;
+        out[outLength++] = (byte) (value >> 8);
+    }
+
+    /**
+     * Empties buffer (its memory is kept for reuse).
+     */
+    void reset() {
+        outLength = 0;
+    }
+
+    /**
+     * @return buffer with encoded data (valid bytes are [0, length()))
+     */
+    byte[] buffer() {
+        return out;
+    }
+
+    /**
+     * @return number of valid bytes in buffer
+     */
+    int length() {
+        return outLength;
+    }
+
+    private void ensure(int count) {
+        if (outLength + count > out.length) {
+            out = Arrays.copyOf(out, Math.max(out.length * 2, outLength + count));
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package text2gif;
+
+import com.sun.istack.internal.NotNull;
+import text2gif.annotations.Positive;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reader of UTF-8 text file mapped into memory by windows, so files larger than 2 GB can be read.
+ * Bytes are copied from mapped window in bulk and decoded straight into array of caller.
+ * Read never ends with the first half of a surrogate pair unless only one char is requested,
+ * so every chunk consists of whole code points.
+ * Malformed input is reported by MalformedInputException, like Files.newBufferedReader does.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+public class MappedTextReader extends Reader {
+    /**
+     * Default size of mapped window in bytes.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 64 << 20;
+    /**
+     * Size of buffer bytes are decoded from.
+     */
+    private static final int BYTE_BUFFER_SIZE = 16 << 10;
+
+    private final FileChannel channel;
+    private final long size;
+    private final int windowSize;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+    /**
+     * Current window and its position in file.
+     */
+    private MappedByteBuffer window;
+    private long windowStart;
+    /**
+     * Bytes copied from window to be decoded.
+     */
+    private final ByteBuffer bytes = (ByteBuffer) ByteBuffer.allocate(BYTE_BUFFER_SIZE).limit(0);
+    /**
+     * Is true if decoder needs more bytes.
+     */
+    private boolean underflow = true;
+    /**
+     * Is true if all bytes of file are copied to buffer.
+     */
+    private boolean last;
+    /**
+     * Is true when all bytes are decoded.
+     */
+    private boolean finished;
+    /**
+     * Second half of surrogate pair which didn't fit into previous read (-1 if none).
+     */
+    private int pending = -1;
+    /**
+     * Array of last read and its wrapper, reused while caller reuses array.
+     */
+    private char[] target;
+    private CharBuffer targetBuffer;
+    /**
+     * Buffer for surrogate pair when only one char is requested.
+     */
+    private final CharBuffer pair = CharBuffer.allocate(2);
+
+    /**
+     * Opens file with default window size.
+     * @param file UTF-8 text file
+     * @throws IOException if file can't be opened
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public MappedTextReader(@NotNull Path file) throws IOException {
+        this(file, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Opens file.
+     * @param file UTF-8 text file
+     * @param windowSize size of mapped window in bytes
+     * @throws IOException if file can't be opened
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public MappedTextReader(@NotNull Path file, @Positive int windowSize) throws IOException {
+        if (windowSize < 4) {
+            throw new IllegalArgumentException("Window must hold at least one UTF-8 sequence");
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.windowSize = windowSize;
+        this.finished = size == 0;
+    }
+
+    @Override
+    public int read(@NotNull char[] cbuf, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > cbuf.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (!channel.isOpen()) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        int count = 0;
+        if (pending >= 0) {
+            cbuf[off] = (char) pending;
+            pending = -1;
+            count = 1;
+        }
+        if (cbuf != target) {
+            target = cbuf;
+            targetBuffer = CharBuffer.wrap(cbuf);
+        }
+        CharBuffer out = targetBuffer;
+        out.limit(off + len).position(off + count);
+        decode(out);
+        count = out.position() - off;
+        if (count == 0 && !finished) {
+            // Next code point is a surrogate pair, but only one char is requested
+            pair.clear();
+            decode(pair);
+            pair.flip();
+            cbuf[off] = pair.get();
+            pending = pair.hasRemaining() ? pair.get() : -1;
+            return 1;
+        }
+        return count == 0 ? -1 : count;
+    }
+
+    /**
+     * Decodes bytes until buffer is full or input ends, moving bytes from mapped windows
+     * to reused heap buffer by bulk copies (decoder is much faster on heap buffers).
+     * @param out buffer to decode to
+     * @throws IOException if input is malformed or file can't be mapped
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void decode(CharBuffer out) throws IOException {
+        while (out.hasRemaining() && !finished) {
+            if (underflow) {
+                last = fill();
+                underflow = false;
+            }
+            CoderResult result = decoder.decode(bytes, out, last);
+            if (result.isError()) {
+                result.throwException();
+            }
+            if (result.isOverflow()) {
+                return;
+            }
+            if (last) {
+                decoder.flush(out);
+                finished = true;
+            }
+            underflow = true;
+        }
+    }
+
+    /**
+     * Moves next bytes of file after bytes not decoded yet.
+     * @return true if all bytes of file are in buffer
+     * @throws IOException if file can't be mapped
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private boolean fill() throws IOException {
+        bytes.compact();
+        while (bytes.hasRemaining()) {
+            if (window == null || !window.hasRemaining()) {
+                long next = window == null ? 0 : windowStart + window.limit();
+                if (next == size) {
+                    break;
+                }
+                map(next);
+            }
+            int count = Math.min(bytes.remaining(), window.remaining());
+            int limit = window.limit();
+            window.limit(window.position() + count);
+            bytes.put(window);
+            window.limit(limit);
+        }
+        bytes.flip();
+        return windowStart + window.limit() == size && !window.hasRemaining();
+    }
+
+    /**
+     * Maps window starting at given position.
+     * @param position position in file
+     * @throws IOException if file can't be mapped
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void map(long position) throws IOException {
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(windowSize, size - position));
+        windowStart = position;
+    }
+
+    @Override
+    public boolean ready() {
+        return pending >= 0 || !finished;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        target = null;
+        targetBuffer = null;
+        channel.close();
+    }
+}
@@ -0,0 +1,314 @@
+package text2gif;
+
+import com.sun.istack.internal.NotNull;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Converts text by segments rendered (and, with built-in encoder, encoded) in parallel on ForkJoinPool.
+ * Segments are written in their original order, so output is the same as of sequential conversion.
+ * Number of segments in flight is limited, so memory doesn't depend on input size.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+class ParallelConversion {
+    /**
+     * Number of chars in one segment.
+     */
+    private static final int SEGMENT_SIZE = 4096;
+    /**
+     * Maximum number of encoded frame blocks shared between segments.
+     */
+    private static final int MAX_SHARED_BLOCKS = 4096;
+
+    /**
+     * Rendered or encoded frames of one segment.
+     */
+    private static final class Segment {
+        /**
+         * Frames (used if writer encodes frames itself).
+         */
+        BufferedImage[] frames;
+        /**
+         * Code points of frames.
+         */
+        int[] keys;
+        /**
+         * Number of equal letters shown by every frame.
+         */
+        int[] counts;
+        /**
+         * Encoded frame blocks (used with built-in encoder).
+         */
+        byte[][] blocks;
+        int length;
+        long renderNanos;
+        long encodeNanos;
+        /**
+         * Glyph cache lookups of worker converting segment.
+         */
+        final GlyphCache.Lookups lookups = new GlyphCache.Lookups();
+    }
+
+    private final Reader reader;
+    private final GifSequenceWriter writer;
+    private final RenderContext context;
+    private final GlyphCache cache;
+    private final ForkJoinPool pool;
+    private final int maxRunLength;
+    private final ConversionStats stats;
+    /**
+     * Encoded blocks of frames by code point (and code point of previous frame for delta frames),
+     * shared by all segments.
+     */
+    private final ConcurrentHashMap<Long, byte[]> blocks = new ConcurrentHashMap<>();
+    /**
+     * Last frame of written segments, kept until it is known that the next segment doesn't continue its run.
+     */
+    private int pendingKey = -1;
+    private int pendingCount;
+    private byte[] pendingBlock;
+    private BufferedImage pendingFrame;
+
+    /**
+     * Creates parallel conversion.
+     * @param reader text input
+     * @param writer GIF output
+     * @param context render settings
+     * @param pool pool to run segments on
+     * @param maxRunLength maximum number of equal letters written as one frame
+     * @param stats statistics to fill
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    ParallelConversion(@NotNull Reader reader, @NotNull GifSequenceWriter writer, @NotNull RenderContext context,
+                       @NotNull ForkJoinPool pool, int maxRunLength, @NotNull ConversionStats stats) {
+        this.reader = reader;
+        this.writer = writer;
+        this.context = context;
+        this.cache = TextUtil.getGlyphCache();
+        this.pool = pool;
+        this.maxRunLength = maxRunLength;
+        this.stats = stats;
+    }
+
+    /**
+     * Runs conversion and waits for its end.
+     * @throws IOException if an I/O error occurs
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    void run() throws IOException {
+        boolean encode = writer.supportsEncodedFrames();
+        // Keep every worker busy while previous segments are written
+        int window = Math.max(2, pool.getParallelism() * 2);
+        ArrayDeque<ForkJoinTask<Segment>> pending = new ArrayDeque<>();
+        char[] buffer = new char[SEGMENT_SIZE];
+        int carry = 0;
+        // Last code point of previous segment (delta frame of next segment depends on it)
+        int previous = -1;
+        try {
+            while (true) {
+                // Fill segment
+                long start = System.nanoTime();
+                int length = carry;
+                int read = 0;
+                while (length < SEGMENT_SIZE && (read = reader.read(buffer, length, SEGMENT_SIZE - length)) != -1) {
+                    length += read;
+                }
+                stats.chunkRead(length - carry, System.nanoTime() - start);
+                boolean end = read == -1;
+                if (length == 0) {
+                    break;
+                }
+                // Don't split surrogate pair between segments
+                carry = !end && Character.isHighSurrogate(buffer[length - 1]) ? 1 : 0;
+                char[] chars = Arrays.copyOf(buffer, length - carry);
+                if (carry == 1) {
+                    buffer[0] = buffer[length - 1];
+                }
+                int first = previous;
+                pending.add(pool.submit(() -> convert(chars, first, encode)));
+                if (chars.length > 0) {
+                    previous = Character.codePointBefore(chars, chars.length);
+                }
+                // Write finished segments in order
+                while (pending.size() >= window) {
+                    write(pending.poll().join());
+                }
+                if (end) {
+                    break;
+                }
+            }
+            while (!pending.isEmpty()) {
+                write(pending.poll().join());
+            }
+            flush();
+        } finally {
+            for (ForkJoinTask<Segment> task : pending) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Renders and (if encode is true) encodes frames of segment, one frame for every run of equal letters.
+     * @param chars text of segment
+     * @param previous code point of frame before segment (-1 if segment is first)
+     * @param encode is true if frames are encoded into blocks
+     * @return segment
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private Segment convert(char[] chars, int previous, boolean encode) {
+        Segment segment = new Segment();
+        int count = Character.codePointCount(chars, 0, chars.length);
+        segment.keys = new int[count];
+        segment.counts = new int[count];
+        if (encode) {
+            segment.blocks = new byte[count][];
+        } else {
+            segment.frames = new BufferedImage[count];
+        }
+        GifEncoder encoder = null;
+        boolean cached = cache.isEnabled();
+        boolean delta = writer.isDeltaFrames();
+        int j = -1;
+        for (int i = 0; i < chars.length; ) {
+            int codePoint = Character.codePointAt(chars, i);
+            i += Character.charCount(codePoint);
+            if (j >= 0 && codePoint == segment.keys[j] && segment.counts[j] < maxRunLength) {
+                // Continue run
+                segment.counts[j]++;
+                continue;
+            }
+            j++;
+            segment.keys[j] = codePoint;
+            segment.counts[j] = 1;
+            if (encode) {
+                // Delta frame block depends on previous frame
+                long key = delta ? (long) (previous + 1) << 32 | codePoint : codePoint;
+                byte[] block = blocks.get(key);
+                if (block == null) {
+                    // Render and encode frame
+                    long start = System.nanoTime();
+                    BufferedImage frame = render(codePoint, cached, segment.lookups);
+                    BufferedImage previousFrame = delta && previous >= 0
+                            ? render(previous, cached, segment.lookups) : null;
+                    long rendered = System.nanoTime();
+                    if (encoder == null) {
+                        encoder = writer.createFrameEncoder();
+                    }
+                    block = delta ? encoder.encodeFrame(frame, previousFrame, writer.getTimeBetweenFramesMS())
+                            : encoder.encodeFrame(frame, writer.getTimeBetweenFramesMS());
+                    if (!cached) {
+                        context.releaseFrame(frame);
+                        if (previousFrame != null) {
+                            context.releaseFrame(previousFrame);
+                        }
+                    }
+                    if (blocks.size() < MAX_SHARED_BLOCKS) {
+                        byte[] existing = blocks.putIfAbsent(key, block);
+                        block = existing != null ? existing : block;
+                    }
+                    segment.renderNanos += rendered - start;
+                    segment.encodeNanos += System.nanoTime() - rendered;
+                }
+                segment.blocks[j] = block;
+            } else {
+                // Render frame, writer encodes it
+                long start = System.nanoTime();
+                BufferedImage frame;
+                if (cached) {
+                    frame = cache.get(context, codePoint, segment.lookups);
+                } else {
+                    frame = context.createFrame();
+                    context.paint(codePoint, frame);
+                }
+                segment.frames[j] = frame;
+                segment.renderNanos += System.nanoTime() - start;
+            }
+            previous = codePoint;
+        }
+        segment.length = j + 1;
+        return segment;
+    }
+
+    /**
+     * Renders frame for encoding.
+     * @param codePoint letter
+     * @param cached is true if frame is taken from glyph cache
+     * @param lookups glyph cache lookups of segment
+     * @return frame (must be released to render context if not cached)
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private BufferedImage render(int codePoint, boolean cached, GlyphCache.Lookups lookups) {
+        if (cached) {
+            return cache.get(context, codePoint, lookups);
+        }
+        BufferedImage frame = context.acquireFrame();
+        context.paint(codePoint, frame);
+        return frame;
+    }
+
+    /**
+     * Writes frames of segment. Frames continuing run of kept frame are merged with it and split again
+     * into frames of maximum length, as sequential conversion splits runs.
+     * @param segment converted segment
+     * @throws IOException if an I/O error occurs
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void write(Segment segment) throws IOException {
+        long start = System.nanoTime();
+        for (int i = 0; i < segment.length; i++) {
+            if (segment.keys[i] == pendingKey) {
+                pendingCount += segment.counts[i];
+                while (pendingCount > maxRunLength) {
+                    // Write full frame, the rest of run continues with frame following the same letter
+                    int rest = pendingCount - maxRunLength;
+                    pendingCount = maxRunLength;
+                    flush();
+                    pendingKey = segment.keys[i];
+                    pendingCount = rest;
+                    pendingBlock = segment.blocks != null ? segment.blocks[i] : null;
+                    pendingFrame = segment.frames != null ? segment.frames[i] : null;
+                }
+                continue;
+            }
+            flush();
+            pendingKey = segment.keys[i];
+            pendingCount = segment.counts[i];
+            pendingBlock = segment.blocks != null ? segment.blocks[i] : null;
+            pendingFrame = segment.frames != null ? segment.frames[i] : null;
+        }
+        stats.rendered(segment.length, segment.renderNanos);
+        stats.getGlyphLookups().add(segment.lookups);
+        stats.encoded(0, segment.encodeNanos + System.nanoTime() - start);
+    }
+
+    /**
+     * Writes kept last frame.
+     * @throws IOException if an I/O error occurs
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void flush() throws IOException {
+        if (pendingKey < 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        int size = context.getFrameSize();
+        int delay = pendingCount * writer.getTimeBetweenFramesMS();
+        if (pendingBlock != null) {
+            writer.writeEncodedFrame(pendingBlock, size, size, delay);
+        } else {
+            writer.writeToSequence(pendingFrame, pendingKey, delay);
+        }
+        pendingKey = -1;
+        pendingBlock = null;
+        pendingFrame = null;
+        stats.encoded(1, System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,509 @@
+package text2gif;
+
+import com.sun.istack.internal.NotNull;
+import text2gif.annotations.Positive;
+
+import javax.imageio.ImageTypeSpecifier;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.util.ArrayDeque;
+
+/**
+ * Resolved render settings: font, metrics, frame size and rendering hints are computed once
+ * and reused for every painted letter. Font name may be a comma-separated fallback chain (see FontCoverage),
+ * frame size follows the first font. Font is resolved when it is needed first, so contexts
+ * can be created without initializing fonts. Instances are immutable (except frame pool and
+ * lazily resolved font) and thread-safe.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+public class RenderContext {
+    /**
+     * Maximum number of idle frames kept in pool.
+     */
+    private static final int POOL_SIZE = 16;
+
+    /**
+     * Context with default settings of TextUtil.
+     */
+    public static final RenderContext DEFAULT = new RenderContext(TextUtil.FONT_NAME, TextUtil.FONT_STYLE,
+            TextUtil.FONT_SIZE, TextUtil.FOREGROUND, TextUtil.BACKGROUND);
+
+    private final String fontName;
+    private final int fontStyle;
+    private final int fontSize;
+    private final Color foreground;
+    private final Color background;
+    private final FrameFormat format;
+    private final RenderQuality quality;
+    /**
+     * Palette shared by all frames (null for formats without palette).
+     */
+    private final IndexColorModel palette;
+    /**
+     * Resolved first font of chain (null until font is needed).
+     */
+    private volatile Font font;
+    /**
+     * Metrics of first font under rendering hints (used to place letter).
+     */
+    private FontMetrics metrics;
+    /**
+     * Fonts of fallback chain, their metrics and shared index of font by code point.
+     */
+    private Font[] fonts;
+    private FontMetrics[] fontMetrics;
+    private FontCoverage coverage;
+    /**
+     * Width and height of square frame (0 until font is resolved).
+     */
+    private volatile int frameSize;
+    /**
+     * Type of frames for GifSequenceWriter (null until first GIF), also a key of pooled encoder sessions.
+     */
+    private volatile ImageTypeSpecifier imageTypeSpecifier;
+    /**
+     * Rendering hints applied to every frame.
+     */
+    private final RenderingHints hints;
+    /**
+     * Atlas of prebuilt letters (null if every letter is painted).
+     */
+    private final GlyphAtlas atlas;
+    /**
+     * Idle frames ready to reuse.
+     */
+    private final ArrayDeque<BufferedImage> pool = new ArrayDeque<>();
+
+    /**
+     * Creates render context of ARGB frames.
+     * @param fontName font name
+     * @param fontStyle font style (Font.PLAIN, Font.BOLD, ...)
+     * @param fontSize font size
+     * @param foreground text color
+     * @param background background color
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public RenderContext(@NotNull String fontName, int fontStyle, @Positive int fontSize,
+                         @NotNull Color foreground, @NotNull Color background) {
+        this(fontName, fontStyle, fontSize, foreground, background, FrameFormat.ARGB);
+    }
+
+    /**
+     * Creates render context.
+     * @param fontName font name
+     * @param fontStyle font style (Font.PLAIN, Font.BOLD, ...)
+     * @param fontSize font size
+     * @param foreground text color
+     * @param background background color
+     * @param format pixel format of frames
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public RenderContext(@NotNull String fontName, int fontStyle, @Positive int fontSize,
+                         @NotNull Color foreground, @NotNull Color background, @NotNull FrameFormat format) {
+        this(fontName, fontStyle, fontSize, foreground, background, format, RenderQuality.QUALITY);
+    }
+
+    /**
+     * Creates render context with given quality tier.
+     * @param fontName font name
+     * @param fontStyle font style (Font.PLAIN, Font.BOLD, ...)
+     * @param fontSize font size
+     * @param foreground text color
+     * @param background background color
+     * @param format pixel format of frames
+     * @param quality quality tier of rendering
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public RenderContext(@NotNull String fontName, int fontStyle, @Positive int fontSize,
+                         @NotNull Color foreground, @NotNull Color background, @NotNull FrameFormat format,
+                         @NotNull RenderQuality quality) {
+        this.fontName = fontName;
+        this.fontStyle = fontStyle;
+        this.fontSize = fontSize;
+        this.foreground = foreground;
+        this.background = background;
+        this.format = format;
+        this.quality = quality;
+        // Create palette
+        palette = format.isIndexed() ? createPalette(background, foreground, format.getPaletteSize(),
+                format.getPixelBits()) : null;
+        hints = quality.createHints();
+        atlas = null;
+    }
+
+    /**
+     * Creates render context of glyph atlas without resolving font.
+     * @param fontName font name
+     * @param fontStyle font style (Font.PLAIN, Font.BOLD, ...)
+     * @param fontSize font size
+     * @param foreground text color
+     * @param background background color
+     * @param format pixel format of frames
+     * @param quality quality tier of rendering
+     * @param frameSize size of frames of atlas
+     * @param atlas atlas of prebuilt letters
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    RenderContext(@NotNull String fontName, int fontStyle, @Positive int fontSize, @NotNull Color foreground,
+                  @NotNull Color background, @NotNull FrameFormat format, @NotNull RenderQuality quality,
+                  @Positive int frameSize, @NotNull GlyphAtlas atlas) {
+        this.fontName = fontName;
+        this.fontStyle = fontStyle;
+        this.fontSize = fontSize;
+        this.foreground = foreground;
+        this.background = background;
+        this.format = format;
+        this.quality = quality;
+        this.frameSize = frameSize;
+        this.atlas = atlas;
+        palette = format.isIndexed() ? createPalette(background, foreground, format.getPaletteSize(),
+                format.getPixelBits()) : null;
+        hints = quality.createHints();
+    }
+
+    /**
+     * Resolves fonts of chain, their metrics and (unless it is known from atlas) frame size.
+     * @return first font of chain
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private Font resolveFont() {
+        Font result = font;
+        if (result != null) {
+            return result;
+        }
+        synchronized (this) {
+            if (font == null) {
+                // Create fonts of chain
+                coverage = FontCoverage.get(fontName, fontStyle);
+                fonts = new Font[coverage.getFontCount()];
+                fontMetrics = new FontMetrics[fonts.length];
+                for (int i = 0; i < fonts.length; i++) {
+                    fonts[i] = new Font(coverage.getFontName(i), fontStyle, fontSize);
+                }
+                // Create graphics object to get size of font
+                BufferedImage img = new BufferedImage(1, 1, TextUtil.IMAGE_TYPE);
+                Graphics2D g2d = img.createGraphics();
+                g2d.setFont(fonts[0]);
+                // Get size of font
+                if (frameSize == 0) {
+                    frameSize = g2d.getFontMetrics().getHeight();
+                }
+                // Get metrics used for painting
+                g2d.setRenderingHints(hints);
+                for (int i = 0; i < fonts.length; i++) {
+                    fontMetrics[i] = g2d.getFontMetrics(fonts[i]);
+                }
+                metrics = fontMetrics[0];
+                g2d.dispose();
+                font = fonts[0];
+            }
+            return font;
+        }
+    }
+    /**
+     * Creates palette of shades from background to foreground color (antialiased edges use middle shades).
+     * @param background background color (index 0)
+     * @param foreground text color (last index)
+     * @param size number of shades
+     * @param bits bits per pixel of frames
+     * @return palette
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private static IndexColorModel createPalette(Color background, Color foreground, int size, int bits) {
+        byte[] r = new byte[size];
+        byte[] g = new byte[size];
+        byte[] b = new byte[size];
+        for (int i = 0; i < size; i++) {
+            r[i] = (byte) (background.getRed() + (foreground.getRed() - background.getRed()) * i / (size - 1));
+            g[i] = (byte) (background.getGreen() + (foreground.getGreen() - background.getGreen()) * i / (size - 1));
+            b[i] = (byte) (background.getBlue() + (foreground.getBlue() - background.getBlue()) * i / (size - 1));
+        }
+        return new IndexColorModel(bits, size, r, g, b);
+    }
+
+    /**
+     * Creates new empty frame of this context.
+     * @return frame
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public BufferedImage createFrame() {
+        return createFrame(getFrameSize());
+    }
+
+    /**
+     * Creates new empty frame of this context with given width (frames of segments of letters).
+     * @param width width of frame (height is frame size)
+     * @return frame
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public BufferedImage createFrame(@Positive int width) {
+        int size = getFrameSize();
+        if (palette != null) {
+            return new BufferedImage(width, size, format.getImageType(), palette);
+        }
+        return new BufferedImage(width, size, format.getImageType());
+    }
+
+    /**
+     * Returns width of frame fitting segment of letters: square frame of one letter
+     * widened by advance of a letter for every next letter. Wider letters (and letters of fallback fonts)
+     * may not fit, segments must be checked by getWidth.
+     * @param letters maximum number of letters in segment
+     * @return width of frame
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public int getSegmentWidth(@Positive int letters) {
+        resolveFont();
+        return getFrameSize() + (letters - 1) * metrics.charWidth('M');
+    }
+
+    /**
+     * Returns type of frames for GifSequenceWriter (palette of indexed formats is written once for whole GIF).
+     * Type is created once from a frame.
+     * @return type of frames
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public ImageTypeSpecifier getImageTypeSpecifier() {
+        ImageTypeSpecifier type = imageTypeSpecifier;
+        if (type == null) {
+            type = new ImageTypeSpecifier(createFrame());
+            imageTypeSpecifier = type;
+        }
+        return type;
+    }
+
+    /**
+     * Takes frame from pool or creates new one if pool is empty.
+     * Frame should be returned by releaseFrame when it is not needed.
+     * @return frame (its content is undefined)
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public BufferedImage acquireFrame() {
+        synchronized (pool) {
+            BufferedImage frame = pool.pollFirst();
+            if (frame != null) {
+                return frame;
+            }
+        }
+        return createFrame();
+    }
+
+    /**
+     * Returns frame to pool.
+     * @param frame frame taken by acquireFrame
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public void releaseFrame(@NotNull BufferedImage frame) {
+        synchronized (pool) {
+            if (pool.size() < POOL_SIZE) {
+                pool.addFirst(frame);
+            }
+        }
+    }
+
+    /**
+     * Paints letter at center of frame with the first font of chain which can display it.
+     * @param codePoint Unicode code point to paint
+     * @param frame frame of this context to paint in
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public void paint(int codePoint, @NotNull BufferedImage frame) {
+        // Copy prebuilt letter
+        if (atlas != null && atlas.copyTo(codePoint, frame)) {
+            return;
+        }
+        resolveFont();
+        int index = coverage.getFontIndex(codePoint);
+        FontMetrics letterMetrics = fontMetrics[index];
+        // Convert code point to chars
+        char[] chars = Character.toChars(codePoint);
+        // Create graphics
+        Graphics2D g2d = frame.createGraphics();
+        g2d.setRenderingHints(hints);
+        g2d.setFont(fonts[index]);
+        // Fill background rectangle
+        g2d.setColor(background);
+        g2d.fillRect(0, 0, frame.getWidth(), frame.getHeight());
+        // Paint letter at center (on baseline of the first font)
+        g2d.setColor(foreground);
+        g2d.drawChars(chars, 0, chars.length,
+                (frame.getWidth() - letterMetrics.charsWidth(chars, 0, chars.length)) / 2,
+                ((frame.getHeight() - metrics.getHeight()) / 2) + metrics.getAscent());
+        g2d.dispose();
+    }
+
+    /**
+     * Paints segment of letters at center of frame (control chars are painted as spaces).
+     * Runs of letters missing in the first font are painted with fallback fonts of chain.
+     * @param text letters to paint
+     * @param frame frame of this context to paint in (may be wider than square frame)
+     * @return width of painted letters in pixels
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public int paint(@NotNull CharSequence text, @NotNull BufferedImage frame) {
+        resolveFont();
+        char[] chars = toChars(text);
+        // Create graphics
+        Graphics2D g2d = frame.createGraphics();
+        g2d.setRenderingHints(hints);
+        // Fill background rectangle
+        g2d.setColor(background);
+        g2d.fillRect(0, 0, frame.getWidth(), frame.getHeight());
+        // Paint letters at center
+        int width = paintRuns(chars, null, 0, 0);
+        g2d.setColor(foreground);
+        paintRuns(chars, g2d, (frame.getWidth() - width) / 2,
+                ((frame.getHeight() - metrics.getHeight()) / 2) + metrics.getAscent());
+        g2d.dispose();
+        return width;
+    }
+
+    /**
+     * Returns width of segment of letters painted by paint.
+     * @param text letters
+     * @return width of letters in pixels
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public int getWidth(@NotNull CharSequence text) {
+        resolveFont();
+        return paintRuns(toChars(text), null, 0, 0);
+    }
+
+    /**
+     * Returns advance of letter in its font of chain, rounded to pixels (sum of advances of segment
+     * can differ from its width by rounding).
+     * @param codePoint Unicode code point
+     * @return advance in pixels
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public int getAdvance(int codePoint) {
+        resolveFont();
+        if (Character.isISOControl(codePoint)) {
+            codePoint = ' ';
+        }
+        return fontMetrics[coverage.getFontIndex(codePoint)].charWidth(codePoint);
+    }
+
+    /**
+     * Copies letters, replacing line breaks and tabs by spaces.
+     * @param text letters
+     * @return chars to paint
+     */
+    private static char[] toChars(CharSequence text) {
+        char[] chars = new char[text.length()];
+        for (int i = 0; i < chars.length; i++) {
+            char c = text.charAt(i);
+            chars[i] = Character.isISOControl(c) ? ' ' : c;
+        }
+        return chars;
+    }
+
+    /**
+     * Measures or paints letters split into runs of letters of the same font of chain.
+     * @param chars letters
+     * @param g2d graphics to paint with (null to measure only)
+     * @param x left end of baseline
+     * @param y baseline
+     * @return width of letters in pixels
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private int paintRuns(char[] chars, Graphics2D g2d, int x, int y) {
+        int width = 0;
+        int start = 0;
+        while (start < chars.length) {
+            // Extend run while letters have the same font
+            int codePoint = Character.codePointAt(chars, start);
+            int index = coverage.getFontIndex(codePoint);
+            int end = start + Character.charCount(codePoint);
+            while (end < chars.length) {
+                codePoint = Character.codePointAt(chars, end);
+                if (coverage.getFontIndex(codePoint) != index) {
+                    break;
+                }
+                end += Character.charCount(codePoint);
+            }
+            if (g2d != null) {
+                g2d.setFont(fonts[index]);
+                g2d.drawChars(chars, start, end - start, x + width, y);
+            }
+            width += fontMetrics[index].charsWidth(chars, start, end - start);
+            start = end;
+        }
+        return width;
+    }
+
+    public String getFontName() {
+        return fontName;
+    }
+
+    public int getFontStyle() {
+        return fontStyle;
+    }
+
+    public int getFontSize() {
+        return fontSize;
+    }
+
+    public Color getForeground() {
+        return foreground;
+    }
+
+    public Color getBackground() {
+        return background;
+    }
+
+    public FrameFormat getFormat() {
+        return format;
+    }
+
+    public RenderQuality getQuality() {
+        return quality;
+    }
+
+    /**
+     * @return atlas of prebuilt letters (null if every letter is painted)
+     */
+    public GlyphAtlas getAtlas() {
+        return atlas;
+    }
+
+    /**
+     * @return palette shared by all frames (null for formats without palette)
+     */
+    public IndexColorModel getPalette() {
+        return palette;
+    }
+
+    /**
+     * @return width and height of frame
+     */
+    public int getFrameSize() {
+        if (frameSize == 0) {
+            resolveFont();
+        }
+        return frameSize;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof RenderContext)) return false;
+        RenderContext that = (RenderContext) o;
+        return fontStyle == that.fontStyle && fontSize == that.fontSize && format == that.format
+                && quality == that.quality && fontName.equals(that.fontName)
+                && foreground.getRGB() == that.foreground.getRGB() && background.getRGB() == that.background.getRGB();
+    }
+
+    @Override
+    public int hashCode() {
+        int result = fontName.hashCode();
+        result = 31 * result + fontStyle;
+        result = 31 * result + fontSize;
+        result = 31 * result + foreground.getRGB();
+        result = 31 * result + background.getRGB();
+        result = 31 * result + format.hashCode();
+        result = 31 * result + quality.hashCode();
+        return result;
+    }
+}
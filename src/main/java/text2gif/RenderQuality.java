@@ -0,0 +1,83 @@
+package text2gif;
+
+import java.awt.*;
+
+/**
+ * Quality tier of rendering: trades smoothness of letters for speed of rendering and size of output.
+ * Antialiased edges are grey pixels, which need larger palettes and compress worse.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+public enum RenderQuality {
+    /**
+     * Sharp letters without antialiasing, Java2D speed hints, meant for 1-bit frames of FrameFormat.MONO
+     * (2 colors per frame).
+     */
+    FAST(FrameFormat.MONO) {
+        @Override
+        RenderingHints createHints() {
+            RenderingHints hints = new RenderingHints(null);
+            hints.put(RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_SPEED);
+            hints.put(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+            hints.put(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+            hints.put(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_SPEED);
+            hints.put(RenderingHints.KEY_DITHERING, RenderingHints.VALUE_DITHER_DISABLE);
+            hints.put(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_OFF);
+            hints.put(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+            hints.put(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED);
+            hints.put(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_NORMALIZE);
+            return hints;
+        }
+    },
+    /**
+     * Antialiased letters on integer metrics without other quality hints.
+     */
+    BALANCED(FrameFormat.INDEXED) {
+        @Override
+        RenderingHints createHints() {
+            RenderingHints hints = new RenderingHints(null);
+            hints.put(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            hints.put(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_OFF);
+            return hints;
+        }
+    },
+    /**
+     * Antialiased letters on fractional metrics with every Java2D quality hint (default).
+     */
+    QUALITY(FrameFormat.INDEXED) {
+        @Override
+        RenderingHints createHints() {
+            RenderingHints hints = new RenderingHints(null);
+            hints.put(RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY);
+            hints.put(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            hints.put(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_QUALITY);
+            hints.put(RenderingHints.KEY_DITHERING, RenderingHints.VALUE_DITHER_ENABLE);
+            hints.put(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+            hints.put(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            hints.put(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            hints.put(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+            return hints;
+        }
+    };
+
+    /**
+     * Frame format suited to this tier.
+     */
+    private final FrameFormat format;
+
+    RenderQuality(FrameFormat format) {
+        this.format = format;
+    }
+
+    /**
+     * @return frame format suited to this tier
+     */
+    public FrameFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Creates rendering hints of this tier.
+     * @return rendering hints
+     */
+    abstract RenderingHints createHints();
+}
@@ -0,0 +1,404 @@
+package text2gif;
+
+import com.sun.istack.internal.NotNull;
+import text2gif.annotations.NotNegative;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Thread-safe cache of finished GIF images keyed by SHA-256 of text and of all settings changing output.
+ * Images are kept in memory and (optionally) in directory on disk, both bounded by total size in bytes
+ * with LRU eviction. Files are written to temporary file and moved into place, so readers (also other
+ * processes sharing directory) never see partial image. Cached arrays must not be modified.
+ * <p>
+ * Index of files and limit of their size are kept per process: processes sharing directory reuse files
+ * found at start, but each one evicts only by its own index, so total size of directory can reach sum
+ * of their limits.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+public class ResultCache {
+    /**
+     * Extension of cached files.
+     */
+    private static final String EXTENSION = ".gif";
+    private static final String TEMP_EXTENSION = ".tmp";
+    /**
+     * Age of temporary file after which its writer is considered crashed.
+     */
+    private static final long STALE_TEMP_MILLIS = 10 * 60 * 1000;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Images in memory in access order (eldest entry is least recently used).
+     */
+    private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxMemoryBytes;
+    private long memoryBytes;
+    /**
+     * Directory of cached files (null if cache is only in memory) and sizes of files in access order.
+     */
+    private final Path directory;
+    private final LinkedHashMap<String, Long> disk = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxDiskBytes;
+    private long diskBytes;
+    /**
+     * Counters.
+     */
+    private long memoryHits;
+    private long diskHits;
+    private long misses;
+    private long memoryEvictions;
+    private long diskEvictions;
+    private long storeFailures;
+
+    /**
+     * Creates cache in memory only.
+     * @param maxMemoryBytes maximum total size of images in memory
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public ResultCache(@NotNegative long maxMemoryBytes) {
+        if (maxMemoryBytes < 0) {
+            throw new IllegalArgumentException("Size must not be negative");
+        }
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.directory = null;
+        this.maxDiskBytes = 0;
+    }
+
+    /**
+     * Creates cache in memory and in directory. Files already in directory are reused,
+     * least recently modified are evicted first.
+     * @param maxMemoryBytes maximum total size of images in memory
+     * @param directory directory of cached files (created if doesn't exist)
+     * @param maxDiskBytes maximum total size of cached files
+     * @throws IOException if directory can't be created or read
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public ResultCache(@NotNegative long maxMemoryBytes, @NotNull Path directory, @NotNegative long maxDiskBytes)
+            throws IOException {
+        if (maxMemoryBytes < 0 || maxDiskBytes < 0) {
+            throw new IllegalArgumentException("Size must not be negative");
+        }
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+        Files.createDirectories(directory);
+        // Index existing files from least to most recently used
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            stream.forEach(files::add);
+        }
+        // Delete temporary files left by crashed writers, not ones being written by other processes
+        long staleBefore = System.currentTimeMillis() - STALE_TEMP_MILLIS;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + TEMP_EXTENSION)) {
+            for (Path temp : stream) {
+                try {
+                    if (Files.getLastModifiedTime(temp).toMillis() < staleBefore) {
+                        Files.deleteIfExists(temp);
+                    }
+                } catch (NoSuchFileException ignored) {
+                    // Moved into place by its writer
+                }
+            }
+        }
+        List<Object[]> entries = new ArrayList<>();
+        for (Path file : files) {
+            try {
+                entries.add(new Object[]{file, Files.getLastModifiedTime(file), Files.size(file)});
+            } catch (NoSuchFileException ignored) {
+                // Removed by another process
+            }
+        }
+        entries.sort((a, b) -> ((FileTime) a[1]).compareTo((FileTime) b[1]));
+        synchronized (this) {
+            for (Object[] entry : entries) {
+                String name = ((Path) entry[0]).getFileName().toString();
+                long size = (Long) entry[2];
+                disk.put(name.substring(0, name.length() - EXTENSION.length()), size);
+                diskBytes += size;
+            }
+            trimDisk();
+        }
+    }
+
+    /**
+     * Computes key of conversion: SHA-256 of text and of settings changing output
+     * (render settings, backend, delay, loop, delta frames, collapsing of runs, segmentation).
+     * @param text text to convert
+     * @param options conversion settings
+     * @return key as hexadecimal string
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public static String key(@NotNull String text, @NotNull ConversionOptions options) {
+        RenderContext context = options.getRenderContext();
+        String settings = String.join("\u0000", "v3", context.getFontName(),
+                Integer.toString(context.getFontStyle()), Integer.toString(context.getFontSize()),
+                Integer.toHexString(context.getForeground().getRGB()),
+                Integer.toHexString(context.getBackground().getRGB()), context.getFormat().name(),
+                context.getQuality().name(),
+                options.getBackend().name(), Integer.toString(options.getFrameDelay()),
+                Boolean.toString(options.isLoopContinuously()), Boolean.toString(options.isDeltaFrames()),
+                Boolean.toString(options.isCollapseRuns()), options.getSegmentation().name(),
+                Integer.toString(options.getSegmentLength()), "");
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException x) {
+            // Every Java platform supports SHA-256
+            throw new IllegalStateException(x);
+        }
+        digest.update(settings.getBytes(StandardCharsets.UTF_8));
+        byte[] hash = digest.digest(text.getBytes(StandardCharsets.UTF_8));
+        char[] result = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            result[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+            result[i * 2 + 1] = HEX[hash[i] & 0xF];
+        }
+        return new String(result);
+    }
+
+    /**
+     * Returns cached image, looking in memory first and then on disk
+     * (image found on disk is kept in memory too).
+     * @param key key computed by key method
+     * @return image (shared, must not be modified) or null if it isn't cached
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public byte[] get(@NotNull String key) {
+        synchronized (this) {
+            byte[] bytes = memory.get(key);
+            if (bytes != null) {
+                memoryHits++;
+                return bytes;
+            }
+            if (directory == null || disk.get(key) == null) {
+                misses++;
+                return null;
+            }
+        }
+        // Read file outside of the lock
+        Path file = file(key);
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException x) {
+            // Evicted meanwhile or removed by another process
+            synchronized (this) {
+                Long size = disk.remove(key);
+                if (size != null) {
+                    diskBytes -= size;
+                }
+                misses++;
+            }
+            return null;
+        }
+        synchronized (this) {
+            diskHits++;
+            putMemory(key, bytes);
+        }
+        return bytes;
+    }
+
+    /**
+     * Stores image in memory and on disk. Image larger than limit of memory or disk isn't stored there.
+     * Image is kept in memory even if its file can't be written (such failures are counted).
+     * @param key key computed by key method
+     * @param bytes image (must not be modified later)
+     * @throws IOException if file can't be written
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public void put(@NotNull String key, @NotNull byte[] bytes) throws IOException {
+        synchronized (this) {
+            putMemory(key, bytes);
+            if (directory == null || bytes.length > maxDiskBytes || disk.containsKey(key)) {
+                return;
+            }
+        }
+        // Write file outside of the lock
+        try {
+            write(key, bytes);
+        } catch (IOException x) {
+            synchronized (this) {
+                storeFailures++;
+            }
+            throw x;
+        }
+        synchronized (this) {
+            Long previous = disk.put(key, (long) bytes.length);
+            diskBytes += bytes.length - (previous != null ? previous : 0);
+            trimDisk();
+        }
+    }
+
+    /**
+     * Writes file through temporary file moved into place.
+     * @param key key of image
+     * @param bytes image
+     * @throws IOException if file can't be written
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void write(String key, byte[] bytes) throws IOException {
+        Path file = file(key);
+        Path temp = Files.createTempFile(directory, key, TEMP_EXTENSION);
+        try {
+            Files.write(temp, bytes);
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException x) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Removes all images from memory and disk.
+     * @throws IOException if file can't be deleted
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public void clear() throws IOException {
+        List<String> keys;
+        synchronized (this) {
+            memory.clear();
+            memoryBytes = 0;
+            keys = new ArrayList<>(disk.keySet());
+            disk.clear();
+            diskBytes = 0;
+        }
+        for (String key : keys) {
+            Files.deleteIfExists(file(key));
+        }
+    }
+
+    /**
+     * Keeps image in memory, evicting least recently used images. Called with lock held.
+     * @param key key of image
+     * @param bytes image
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void putMemory(String key, byte[] bytes) {
+        if (bytes.length > maxMemoryBytes) {
+            return;
+        }
+        byte[] previous = memory.put(key, bytes);
+        memoryBytes += bytes.length - (previous != null ? previous.length : 0);
+        Iterator<Map.Entry<String, byte[]>> iterator = memory.entrySet().iterator();
+        while (memoryBytes > maxMemoryBytes) {
+            memoryBytes -= iterator.next().getValue().length;
+            iterator.remove();
+            memoryEvictions++;
+        }
+    }
+
+    /**
+     * Deletes least recently used files until total size fits limit. Called with lock held.
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void trimDisk() {
+        Iterator<Map.Entry<String, Long>> iterator = disk.entrySet().iterator();
+        while (diskBytes > maxDiskBytes) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            diskBytes -= eldest.getValue();
+            iterator.remove();
+            diskEvictions++;
+            try {
+                Files.deleteIfExists(file(eldest.getKey()));
+            } catch (IOException ignored) {
+                // File is gone from index, it will be overwritten or reindexed later
+            }
+        }
+    }
+
+    private Path file(String key) {
+        return directory.resolve(key + EXTENSION);
+    }
+
+    /**
+     * @return number of images served from memory
+     */
+    public synchronized long getMemoryHits() {
+        return memoryHits;
+    }
+
+    /**
+     * @return number of images served from disk
+     */
+    public synchronized long getDiskHits() {
+        return diskHits;
+    }
+
+    /**
+     * @return number of lookups of images not cached
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return share of lookups served from cache (0 if there were no lookups)
+     */
+    public synchronized double getHitRate() {
+        long lookups = memoryHits + diskHits + misses;
+        return lookups == 0 ? 0 : (double) (memoryHits + diskHits) / lookups;
+    }
+
+    /**
+     * @return number of images removed from memory to fit its limit
+     */
+    public synchronized long getMemoryEvictions() {
+        return memoryEvictions;
+    }
+
+    /**
+     * @return number of files deleted to fit limit of disk
+     */
+    public synchronized long getDiskEvictions() {
+        return diskEvictions;
+    }
+
+    /**
+     * @return number of images whose files couldn't be written
+     */
+    public synchronized long getStoreFailures() {
+        return storeFailures;
+    }
+
+    /**
+     * @return total size of images in memory in bytes
+     */
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    /**
+     * @return total size of cached files in bytes
+     */
+    public synchronized long getDiskBytes() {
+        return diskBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("hits %d (memory %d, disk %d), misses %d, hit rate %.1f%%, evictions %d (memory %d, "
+                        + "disk %d), store failures %d, %d bytes in memory, %d bytes on disk", memoryHits + diskHits,
+                memoryHits, diskHits, misses, getHitRate() * 100, memoryEvictions + diskEvictions, memoryEvictions,
+                diskEvictions, storeFailures, memoryBytes, diskBytes);
+    }
+}
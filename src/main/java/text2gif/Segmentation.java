@@ -0,0 +1,53 @@
+package text2gif;
+
+/**
+ * How text is cut into frames. Every mode except LETTER paints a segment of several letters into one frame,
+ * wide enough for the maximum number of letters of a segment, so frame count, encoding time and output size
+ * drop by about the average segment length. Segments longer than the maximum are cut.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+public enum Segmentation {
+    /**
+     * One square frame per letter.
+     */
+    LETTER {
+        @Override
+        boolean isSeparator(int codePoint) {
+            return false;
+        }
+    },
+    /**
+     * One frame per word, white space between words isn't shown.
+     */
+    WORD {
+        @Override
+        boolean isSeparator(int codePoint) {
+            return Character.isWhitespace(codePoint);
+        }
+    },
+    /**
+     * One frame per line, empty lines aren't shown.
+     */
+    LINE {
+        @Override
+        boolean isSeparator(int codePoint) {
+            return codePoint == '\n' || codePoint == '\r';
+        }
+    },
+    /**
+     * One frame per fixed number of letters, line breaks are shown as spaces.
+     */
+    FIXED {
+        @Override
+        boolean isSeparator(int codePoint) {
+            return false;
+        }
+    };
+
+    /**
+     * Returns true if letter ends segment and isn't shown.
+     * @param codePoint letter
+     * @return true for separator
+     */
+    abstract boolean isSeparator(int codePoint);
+}
@@ -0,0 +1,217 @@
+package text2gif;
+
+import com.sun.istack.internal.NotNull;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Converts text in calling thread with one frame per segment of letters (word, line or fixed number of letters).
+ * Logical screen fits the maximum number of letters of a segment. The first frame covers the screen and
+ * every next frame only the columns of its letters and of letters of previous frame, so pixels encoded
+ * per frame follow length of segment instead of width of screen. Runs of equal segments are one frame.
+ * Segment of letters wider than the screen (wide letters or letters of wider fallback fonts) is cut
+ * before the letter which doesn't fit.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+class SegmentedConversion {
+    /**
+     * Maximum width of GIF image.
+     */
+    private static final int MAX_WIDTH = 0xFFFF;
+    private static final int BUFFER_SIZE = 1024;
+
+    private final Reader reader;
+    private final GifSequenceWriter writer;
+    private final RenderContext context;
+    private final Segmentation segmentation;
+    private final int maxLetters;
+    private final int maxRunLength;
+    private final ConversionStats stats;
+    /**
+     * Frame of whole screen, painted again for every segment.
+     */
+    private final BufferedImage frame;
+    /**
+     * Is true if frames are cropped to changed columns (delta frames are cropped by encoder).
+     */
+    private final boolean crop;
+    /**
+     * Margin kept around letters for parts of glyphs outside of their advance.
+     */
+    private final int margin;
+    /**
+     * Columns of letters of previous frame (-1 before the first frame).
+     */
+    private int previousLeft = -1;
+    private int previousRight;
+    /**
+     * Segment being collected, number of its letters and sum of their advances.
+     */
+    private final StringBuilder segment = new StringBuilder();
+    private int letters;
+    private int advances;
+    /**
+     * Segment of current run and its length.
+     */
+    private String run;
+    private int runLength;
+
+    /**
+     * Creates segmented conversion.
+     * @param reader text input
+     * @param writer GIF output
+     * @param options conversion settings (segmentation isn't LETTER)
+     * @param stats statistics to fill
+     * @throws IllegalArgumentException if frame of maximum number of letters is wider than GIF allows
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    SegmentedConversion(@NotNull Reader reader, @NotNull GifSequenceWriter writer,
+                        @NotNull ConversionOptions options, @NotNull ConversionStats stats) {
+        this.reader = reader;
+        this.writer = writer;
+        this.context = options.getRenderContext();
+        this.segmentation = options.getSegmentation();
+        this.maxLetters = options.getSegmentLength();
+        this.maxRunLength = options.getMaxRunLength();
+        this.stats = stats;
+        int width = context.getSegmentWidth(maxLetters);
+        if (width > MAX_WIDTH) {
+            throw new IllegalArgumentException("Frame of " + maxLetters + " letters is wider than GIF allows");
+        }
+        this.frame = context.createFrame(width);
+        this.crop = !options.isDeltaFrames();
+        this.margin = context.getFrameSize() / 4;
+    }
+
+    /**
+     * Runs conversion.
+     * @throws IOException if an I/O error occurs
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    void run() throws IOException {
+        char[] buffer = new char[BUFFER_SIZE];
+        // Number of chars kept from previous chunk (first half of surrogate pair)
+        int carry = 0;
+        int read;
+        long time = System.nanoTime();
+        // Read chunks until end of input
+        while ((read = reader.read(buffer, carry, BUFFER_SIZE - carry)) != -1 || carry > 0) {
+            int length = carry + Math.max(read, 0);
+            stats.chunkRead(length - carry, System.nanoTime() - time);
+            // Don't split surrogate pair between chunks
+            carry = read != -1 && Character.isHighSurrogate(buffer[length - 1]) ? 1 : 0;
+            int end = length - carry;
+            for (int i = 0; i < end; ) {
+                int codePoint = Character.codePointAt(buffer, i, end);
+                i += Character.charCount(codePoint);
+                if (segmentation.isSeparator(codePoint)) {
+                    if (letters > 0) {
+                        endSegment();
+                    }
+                    continue;
+                }
+                int advance = context.getAdvance(codePoint);
+                if (letters > 0 && !fits(codePoint, advance)) {
+                    // Letter starts next segment
+                    endSegment();
+                }
+                segment.appendCodePoint(codePoint);
+                letters++;
+                advances += advance;
+                // Segment ends when it is full
+                if (letters == maxLetters) {
+                    endSegment();
+                }
+            }
+            if (carry > 0) {
+                buffer[0] = buffer[length - 1];
+            }
+            time = System.nanoTime();
+        }
+        // Write last segments
+        if (letters > 0) {
+            endSegment();
+        }
+        if (runLength > 0) {
+            write(run, runLength);
+        }
+    }
+
+    /**
+     * Checks if letter added to segment fits the screen. Segment is measured only when sum of advances
+     * gets close to width of screen (rounding of advances differs from width by less than a pixel per letter).
+     * @param codePoint letter
+     * @param advance advance of letter
+     * @return true if segment with letter isn't wider than the screen
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private boolean fits(int codePoint, int advance) {
+        int width = frame.getWidth();
+        if (advances + advance + letters + 1 <= width) {
+            return true;
+        }
+        int length = segment.length();
+        segment.appendCodePoint(codePoint);
+        boolean result = context.getWidth(segment) <= width;
+        segment.setLength(length);
+        return result;
+    }
+
+    /**
+     * Ends collected segment: extends current run if segment repeats it or writes run and starts new one.
+     * @throws IOException if an I/O error occurs
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void endSegment() throws IOException {
+        String text = segment.toString();
+        segment.setLength(0);
+        letters = 0;
+        advances = 0;
+        if (text.equals(run) && runLength < maxRunLength) {
+            runLength++;
+            return;
+        }
+        if (runLength > 0) {
+            write(run, runLength);
+        }
+        run = text;
+        runLength = 1;
+    }
+
+    /**
+     * Writes one frame for run of equal segments.
+     * @param text letters of segment
+     * @param count number of segments in run
+     * @throws IOException if an I/O error occurs
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void write(String text, int count) throws IOException {
+        long start = System.nanoTime();
+        int width = frame.getWidth();
+        int letterWidth = context.paint(text, frame);
+        int left = (width - letterWidth) / 2;
+        int right = left + letterWidth;
+        // Columns painted over: letters of this and of previous frame
+        int frameLeft = 0;
+        int frameRight = width;
+        if (crop && previousLeft >= 0) {
+            frameLeft = Math.max(0, Math.min(left, previousLeft) - margin);
+            frameRight = Math.min(width, Math.max(right, previousRight) + margin);
+        }
+        previousLeft = left;
+        previousRight = right;
+        long rendered = System.nanoTime();
+        stats.rendered(1, rendered - start);
+        // Letters and columns identify encoded frame, repeated segments are copied
+        int delay = count * writer.getTimeBetweenFramesMS();
+        if (frameLeft == 0 && frameRight == width) {
+            writer.writeToSequence(frame, 0, text, delay);
+        } else {
+            writer.writeToSequence(frame.getSubimage(frameLeft, 0, frameRight - frameLeft, frame.getHeight()),
+                    frameLeft, frameLeft + ":" + frameRight + ":" + text, delay);
+        }
+        stats.encoded(1, System.nanoTime() - rendered);
+    }
+}
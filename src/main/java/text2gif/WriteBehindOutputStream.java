@@ -0,0 +1,285 @@
+package text2gif;
+
+import com.sun.istack.internal.NotNull;
+import text2gif.annotations.Positive;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Output stream filling large direct buffers while previously filled ones are written to channel
+ * by a dedicated writer thread, so encoder doesn't wait for slow disk or network until all buffers are full.
+ * Failure of writer thread is thrown by the next write, flush or close.
+ * Closing doesn't close the channel.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+public class WriteBehindOutputStream extends OutputStream {
+    /**
+     * When written data is forced to storage device (only if channel is FileChannel).
+     */
+    public enum Sync {
+        /**
+         * Never, operating system decides.
+         */
+        NONE,
+        /**
+         * Once when stream is closed.
+         */
+        CLOSE,
+        /**
+         * After every written buffer.
+         */
+        BUFFER
+    }
+
+    /**
+     * Default size of one buffer in bytes.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+    /**
+     * Default number of buffers.
+     */
+    public static final int DEFAULT_BUFFER_COUNT = 2;
+    /**
+     * Marker stopping writer thread.
+     */
+    private static final ByteBuffer STOP = ByteBuffer.allocate(0);
+
+    private final WritableByteChannel channel;
+    private final Sync sync;
+    private final int bufferCount;
+    /**
+     * Empty buffers and filled buffers waiting for writer thread.
+     */
+    private final BlockingQueue<ByteBuffer> free;
+    private final BlockingQueue<ByteBuffer> filled;
+    private final Thread writer;
+    /**
+     * Buffer being filled.
+     */
+    private ByteBuffer current;
+    /**
+     * First error of writer thread.
+     */
+    private volatile IOException failure;
+    /**
+     * Time spent waiting for free buffer in nanoseconds.
+     */
+    private long waitNanos;
+    private boolean closed;
+
+    /**
+     * Creates stream with default buffers, never forcing data to device.
+     * @param channel channel to write to
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public WriteBehindOutputStream(@NotNull WritableByteChannel channel) {
+        this(channel, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT, Sync.NONE);
+    }
+
+    /**
+     * Creates stream and starts its writer thread.
+     * @param channel channel to write to
+     * @param bufferSize size of one buffer in bytes
+     * @param bufferCount number of buffers (at least 2: one is filled while others are written)
+     * @param sync when written data is forced to storage device
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    public WriteBehindOutputStream(@NotNull WritableByteChannel channel, @Positive int bufferSize,
+                                   @Positive int bufferCount, @NotNull Sync sync) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive");
+        }
+        if (bufferCount < 2) {
+            throw new IllegalArgumentException("At least two buffers are needed");
+        }
+        this.channel = channel;
+        this.sync = sync;
+        this.bufferCount = bufferCount;
+        // Allocate buffers
+        free = new ArrayBlockingQueue<>(bufferCount);
+        filled = new ArrayBlockingQueue<>(bufferCount + 1);
+        current = ByteBuffer.allocateDirect(bufferSize);
+        for (int i = 1; i < bufferCount; i++) {
+            free.add(ByteBuffer.allocateDirect(bufferSize));
+        }
+        // Start writer thread
+        writer = new Thread(this::drain, "text2gif-write-behind");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (!current.hasRemaining()) {
+            handOff();
+        }
+        current.put((byte) b);
+    }
+
+    @Override
+    public void write(@NotNull byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureOpen();
+        while (len > 0) {
+            if (!current.hasRemaining()) {
+                handOff();
+            }
+            int count = Math.min(len, current.remaining());
+            current.put(b, off, count);
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Hands filled part of current buffer to writer thread and waits until everything is written.
+     * @throws IOException if writer thread failed
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        if (current.position() > 0) {
+            handOff();
+        }
+        // Writer thread is idle when all buffers are free again
+        ByteBuffer[] buffers = new ByteBuffer[bufferCount - 1];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = take();
+        }
+        for (ByteBuffer buffer : buffers) {
+            free.add(buffer);
+        }
+        checkFailure();
+    }
+
+    /**
+     * Writes remaining data, forces it to device if sync policy says so and stops writer thread.
+     * Channel stays open.
+     * @throws IOException if data can't be written
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+            if (sync == Sync.CLOSE && channel instanceof FileChannel) {
+                ((FileChannel) channel).force(false);
+            }
+        } finally {
+            closed = true;
+            filled.add(STOP);
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return time the writing thread spent waiting for a free buffer in nanoseconds
+     */
+    public long getWaitNanos() {
+        return waitNanos;
+    }
+
+    /**
+     * Passes current buffer to writer thread and takes next free buffer.
+     * @throws IOException if writer thread failed or waiting is interrupted
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void handOff() throws IOException {
+        checkFailure();
+        current.flip();
+        filled.add(current);
+        current = take();
+    }
+
+    /**
+     * Takes free buffer, waiting while all buffers are being written.
+     * @return empty buffer
+     * @throws IOException if waiting is interrupted
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private ByteBuffer take() throws IOException {
+        ByteBuffer buffer = free.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+        long start = System.nanoTime();
+        try {
+            buffer = free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for write-behind buffer");
+        }
+        waitNanos += System.nanoTime() - start;
+        return buffer;
+    }
+
+    /**
+     * Loop of writer thread: writes filled buffers to channel and returns them to free queue.
+     * After failure (any Throwable of channel) buffers are returned without writing, so writing thread
+     * never blocks forever.
+     * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+     */
+    private void drain() {
+        while (true) {
+            ByteBuffer buffer;
+            try {
+                buffer = filled.take();
+            } catch (InterruptedException e) {
+                // Only close stops writer thread
+                continue;
+            }
+            if (buffer == STOP) {
+                return;
+            }
+            try {
+                if (failure == null) {
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    if (sync == Sync.BUFFER && channel instanceof FileChannel) {
+                        ((FileChannel) channel).force(false);
+                    }
+                }
+            } catch (IOException e) {
+                failure = e;
+            } catch (Throwable e) {
+                // Errors too: writer thread must keep returning buffers
+                failure = new IOException(e);
+            } finally {
+                buffer.clear();
+                free.add(buffer);
+            }
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        IOException e = failure;
+        if (e != null) {
+            throw new IOException("Write-behind output failed", e);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
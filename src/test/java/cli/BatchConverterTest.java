@@ -0,0 +1,66 @@
+package cli;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Jobs of batch converter must not write the same file or overwrite inputs.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+public class BatchConverterTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+    @Test
+    public void sameOutputIsRejected() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        Files.write(directory.resolve("a.txt"), "text".getBytes(StandardCharsets.UTF_8));
+        Files.write(directory.resolve("a.log"), "log".getBytes(StandardCharsets.UTF_8));
+        assertEquals(BatchConverter.EXIT_USAGE, execute(directory + "/a.*"));
+        assertTrue(err.toString(), err.toString().contains("same output"));
+        assertFalse(Files.exists(directory.resolve("a.gif")));
+    }
+
+    @Test
+    public void outputsOfPreviousRunAreSkipped() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        Files.write(directory.resolve("x.txt"), "text".getBytes(StandardCharsets.UTF_8));
+        assertEquals(BatchConverter.EXIT_OK, execute("--native", directory + "/*"));
+        byte[] gif = Files.readAllBytes(directory.resolve("x.gif"));
+        // The second run doesn't take x.gif as input
+        assertEquals(BatchConverter.EXIT_OK, execute("--native", directory + "/*", directory + "/x.txt"));
+        assertArrayEquals(gif, Files.readAllBytes(directory.resolve("x.gif")));
+    }
+
+    @Test
+    public void outputOverwritingInputIsRejected() throws IOException {
+        Path input = folder.newFile("x.gif").toPath();
+        Files.write(input, "text".getBytes(StandardCharsets.UTF_8));
+        assertEquals(BatchConverter.EXIT_USAGE, execute("-o", input.toString(), input.toString()));
+        assertEquals("text", new String(Files.readAllBytes(input), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void standardInputIsReadOnce() {
+        assertEquals(BatchConverter.EXIT_USAGE, execute("-", "-"));
+    }
+
+    private int execute(String... args) {
+        PrintStream out = new PrintStream(new ByteArrayOutputStream());
+        return new BatchConverter(out, new PrintStream(err)).execute(args);
+    }
+}
@@ -0,0 +1,59 @@
+package server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Settings of requests must stay within limits of server.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+public class ConversionServerTest {
+    private ConversionServer server;
+
+    @Before
+    public void start() throws IOException {
+        server = new ConversionServer(new InetSocketAddress("localhost", 0), 1, 4,
+                ConversionServer.DEFAULT_MAX_BODY);
+        server.setMaxFontSize(32);
+        server.setMaxSegmentLength(16);
+        server.start();
+    }
+
+    @After
+    public void stop() {
+        server.stop(0);
+    }
+
+    @Test
+    public void rejectsSettingsOverLimits() throws IOException {
+        assertEquals(400, post("size=50000"));
+        assertEquals(400, post("size=33"));
+        assertEquals(400, post("segment=word&segment-length=1000000"));
+        assertEquals(200, post("size=32&segment=word&segment-length=16"));
+    }
+
+    private int post(String query) throws IOException {
+        URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/convert?" + query);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write("Hello".getBytes(StandardCharsets.UTF_8));
+        }
+        try {
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
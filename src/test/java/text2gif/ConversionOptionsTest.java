@@ -0,0 +1,28 @@
+package text2gif;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Settings must reject values conversion can't use.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+public class ConversionOptionsTest {
+    @Test
+    public void frameDelayMustBePositive() {
+        for (int delay : new int[]{0, -1, Integer.MIN_VALUE}) {
+            ConversionOptions options = new ConversionOptions();
+            int previous = options.getFrameDelay();
+            try {
+                options.setFrameDelay(delay);
+                fail("Delay " + delay + " must be rejected");
+            } catch (IllegalArgumentException x) {
+                assertEquals(previous, options.getFrameDelay());
+            }
+        }
+        ConversionOptions options = new ConversionOptions().setFrameDelay(1);
+        assertEquals(Integer.MAX_VALUE, options.getMaxRunLength());
+    }
+}
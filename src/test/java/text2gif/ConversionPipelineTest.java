@@ -0,0 +1,82 @@
+package text2gif;
+
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * Failed stage of pipeline must end conversion instead of leaving other stages waiting.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+public class ConversionPipelineTest {
+    @Test(timeout = 10000)
+    public void renderFailureEndsConversion() throws IOException {
+        // Colors differ from other tests, so letters aren't taken from glyph cache
+        RenderContext failing = new RenderContext(TextUtil.FONT_NAME, TextUtil.FONT_STYLE, 12, Color.RED,
+                Color.WHITE, FrameFormat.INDEXED) {
+            @Override
+            public void paint(int codePoint, BufferedImage frame) {
+                throw new IllegalStateException("Render failed");
+            }
+        };
+        try {
+            GifWriterUtil.toByteArray(ConversionTest.text(200_000, 3),
+                    ConversionTest.options(GifSequenceWriter.Backend.NATIVE).setRenderContext(failing)
+                            .setPipelined(true));
+            fail("Render error must be thrown");
+        } catch (IllegalStateException x) {
+            assertEquals("Render failed", x.getMessage());
+        }
+        awaitStages();
+    }
+
+    @Test(timeout = 10000)
+    public void encodeFailureStopsStages() throws InterruptedException {
+        OutputStream failing = new OutputStream() {
+            private int written;
+
+            @Override
+            public void write(int b) throws IOException {
+                if (++written > 10_000) {
+                    throw new IOException("Disk full");
+                }
+            }
+        };
+        try {
+            GifWriterUtil.writeString(ConversionTest.text(200_000, 5), failing,
+                    ConversionTest.options(GifSequenceWriter.Backend.NATIVE).setPipelined(true));
+            fail("Output error must be thrown");
+        } catch (IOException x) {
+            assertEquals("Disk full", x.getMessage());
+        }
+        awaitStages();
+    }
+
+    /**
+     * Waits until reader and render threads of pipelines end.
+     */
+    private static void awaitStages() {
+        while (true) {
+            boolean running = false;
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                running |= thread.getName().startsWith("text2gif-reader")
+                        || thread.getName().startsWith("text2gif-render");
+            }
+            if (!running) {
+                return;
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException x) {
+                throw new AssertionError(x);
+            }
+        }
+    }
+}
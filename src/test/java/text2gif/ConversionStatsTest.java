@@ -0,0 +1,44 @@
+package text2gif;
+
+import org.junit.Test;
+
+import java.awt.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Statistics must count work of their own conversion only.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+public class ConversionStatsTest {
+    @Test
+    public void glyphLookupsExcludeConcurrentConversions() throws IOException, InterruptedException {
+        // Colors differ from other tests, so letters of this conversion aren't cached yet
+        RenderContext context = new RenderContext(TextUtil.FONT_NAME, TextUtil.FONT_STYLE, 12, Color.GREEN,
+                Color.WHITE, FrameFormat.INDEXED);
+        // Another thread keeps hitting the shared cache
+        Thread other = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                TextUtil.getImage(ConversionTest.CONTEXT, 'x');
+            }
+        });
+        other.start();
+        try {
+            boolean pipelined = false;
+            for (String text : new String[]{"abcabcaaaa", "cbacba"}) {
+                // Frames: a, b, c, a, b, c, a (run); the second text finds all letters cached
+                ConversionStats stats = GifWriterUtil.writeString(text, new ByteArrayOutputStream(),
+                        ConversionTest.options(GifSequenceWriter.Backend.NATIVE).setRenderContext(context)
+                                .setPipelined(pipelined));
+                assertEquals(text, pipelined ? 6 : 4, stats.getGlyphHits());
+                assertEquals(text, pipelined ? 0 : 3, stats.getGlyphMisses());
+                pipelined = true;
+            }
+        } finally {
+            other.interrupt();
+            other.join();
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package text2gif;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Conversion paths must write the same GIF as sequential conversion.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+public class ConversionTest {
+    /**
+     * Small letters keep ImageIO conversions short.
+     */
+    static final RenderContext CONTEXT = new RenderContext(TextUtil.FONT_NAME, TextUtil.FONT_STYLE, 12,
+            Color.BLACK, Color.WHITE, FrameFormat.INDEXED);
+
+    /**
+     * Creates text of words, Cyrillic letters, emoji (surrogate pairs), runs of equal letters and line breaks.
+     * @param length approximate number of chars
+     * @param seed seed of random generator
+     * @return text
+     */
+    static String text(int length, long seed) {
+        Random random = new Random(seed);
+        String[] words = {"the", "quick", "brown", "fox", "Привет", "мир", "😀", "code();", "    ",
+                "\n", "==========", "aaaa"};
+        StringBuilder text = new StringBuilder();
+        while (text.length() < length) {
+            text.append(words[random.nextInt(words.length)]).append(' ');
+        }
+        return text.toString();
+    }
+
+    @Test
+    public void parallelMatchesSequential() throws Exception {
+        String text = text(9000, 7);
+        for (GifSequenceWriter.Backend backend : GifSequenceWriter.Backend.values()) {
+            // Two segments are enough for ImageIO, which is slow
+            String input = backend == GifSequenceWriter.Backend.IMAGEIO ? text.substring(0, 5000) : text;
+            byte[] expected = convert(input, options(backend));
+            for (int parallelism : new int[]{1, 2, 4}) {
+                ForkJoinPool pool = new ForkJoinPool(parallelism);
+                try {
+                    assertArrayEquals(backend + " with " + parallelism + " threads", expected,
+                            convert(input, options(backend).setForkJoinPool(pool)));
+                } finally {
+                    pool.shutdown();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void parallelSplitsLongRunsLikeSequential() throws Exception {
+        // Run of 250000 letters crosses many segments and is longer than one frame can show
+        StringBuilder run = new StringBuilder("ab");
+        for (int i = 0; i < 250_000; i++) {
+            run.append('x');
+        }
+        String text = run.append('y').toString();
+        for (GifSequenceWriter.Backend backend : GifSequenceWriter.Backend.values()) {
+            for (boolean delta : new boolean[]{false, true}) {
+                ConversionOptions options = options(backend).setFrameDelay(10000).setDeltaFrames(delta);
+                assertTrue(options.getMaxRunLength() < 250_000);
+                byte[] expected = convert(text, options);
+                ForkJoinPool pool = new ForkJoinPool(2);
+                try {
+                    assertArrayEquals(backend + ", delta " + delta, expected,
+                            convert(text, options.setForkJoinPool(pool)));
+                } finally {
+                    pool.shutdown();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void pipelinedMatchesSequential() throws Exception {
+        String text = text(3000, 11);
+        for (GifSequenceWriter.Backend backend : GifSequenceWriter.Backend.values()) {
+            assertArrayEquals(backend.toString(), convert(text, options(backend)),
+                    convert(text, options(backend).setPipelined(true)));
+        }
+    }
+
+    @Test
+    public void deltaFramesShowSameAnimation() throws Exception {
+        String text = text(6000, 13);
+        ConversionOptions full = options(GifSequenceWriter.Backend.NATIVE);
+        ConversionOptions delta = options(GifSequenceWriter.Backend.NATIVE).setDeltaFrames(true);
+        byte[] deltaGif = convert(text, delta);
+        assertEquals(timeline(convert(text, full)), timeline(deltaGif));
+        // Parallel conversion encodes the first frame of a segment against the previous segment
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            assertArrayEquals(deltaGif, convert(text, delta.setForkJoinPool(pool)));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void collapsedRunsShowSameAnimation() throws Exception {
+        // Long runs are split into frames of the longest GIF delay
+        StringBuilder run = new StringBuilder(text(1500, 17));
+        for (int i = 0; i < 76; i++) {
+            run.append('x');
+        }
+        String text = run.append('y').toString();
+        for (GifSequenceWriter.Backend backend : GifSequenceWriter.Backend.values()) {
+            ConversionOptions collapsed = options(backend).setFrameDelay(10000);
+            ConversionOptions uncollapsed = options(backend).setFrameDelay(10000).setCollapseRuns(false);
+            List<Shown> expected = timeline(convert(text, uncollapsed));
+            assertEquals(backend.toString(), expected, timeline(convert(text, collapsed)));
+            assertEquals(backend.toString(), expected, timeline(convert(text, collapsed.setPipelined(true))));
+            ForkJoinPool pool = new ForkJoinPool(2);
+            try {
+                assertEquals(backend.toString(), expected,
+                        timeline(convert(text, options(backend).setFrameDelay(10000).setForkJoinPool(pool))));
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Decodes GIF and composites its frames on logical screen.
+     * @param gif GIF bytes
+     * @return screens shown with their delays, equal consecutive screens are merged
+     */
+    static List<Shown> timeline(byte[] gif) throws IOException {
+        ImageReader reader = ImageIO.getImageReadersBySuffix("gif").next();
+        List<Shown> shown = new ArrayList<>();
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(gif))) {
+            reader.setInput(in);
+            IIOMetadataNode stream = (IIOMetadataNode) reader.getStreamMetadata()
+                    .getAsTree("javax_imageio_gif_stream_1.0");
+            IIOMetadataNode screen = (IIOMetadataNode) stream.getElementsByTagName("LogicalScreenDescriptor").item(0);
+            BufferedImage canvas = new BufferedImage(Integer.parseInt(screen.getAttribute("logicalScreenWidth")),
+                    Integer.parseInt(screen.getAttribute("logicalScreenHeight")), BufferedImage.TYPE_INT_ARGB);
+            int count = reader.getNumImages(true);
+            for (int i = 0; i < count; i++) {
+                IIOMetadataNode root = (IIOMetadataNode) reader.getImageMetadata(i)
+                        .getAsTree("javax_imageio_gif_image_1.0");
+                IIOMetadataNode descriptor = (IIOMetadataNode) root.getElementsByTagName("ImageDescriptor").item(0);
+                IIOMetadataNode control = (IIOMetadataNode) root.getElementsByTagName("GraphicControlExtension")
+                        .item(0);
+                // Transparent pixels keep previous screen
+                Graphics2D g2d = canvas.createGraphics();
+                g2d.drawImage(reader.read(i), Integer.parseInt(descriptor.getAttribute("imageLeftPosition")),
+                        Integer.parseInt(descriptor.getAttribute("imageTopPosition")), null);
+                g2d.dispose();
+                int[] rgb = canvas.getRGB(0, 0, canvas.getWidth(), canvas.getHeight(), null, 0, canvas.getWidth());
+                int delay = Integer.parseInt(control.getAttribute("delayTime"));
+                Shown last = shown.isEmpty() ? null : shown.get(shown.size() - 1);
+                if (last != null && Arrays.equals(last.rgb, rgb)) {
+                    last.delay += delay;
+                } else {
+                    shown.add(new Shown(rgb, delay));
+                }
+            }
+        } finally {
+            reader.dispose();
+        }
+        return shown;
+    }
+
+    /**
+     * Screen shown for a time.
+     */
+    static final class Shown {
+        final int[] rgb;
+        int delay;
+
+        Shown(int[] rgb, int delay) {
+            this.rgb = rgb;
+            this.delay = delay;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Shown)) return false;
+            Shown shown = (Shown) o;
+            return delay == shown.delay && Arrays.equals(rgb, shown.rgb);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(rgb) + delay;
+        }
+
+        @Override
+        public String toString() {
+            return "screen " + Integer.toHexString(Arrays.hashCode(rgb)) + " for " + delay + " cs";
+        }
+    }
+
+    static ConversionOptions options(GifSequenceWriter.Backend backend) {
+        return new ConversionOptions().setRenderContext(CONTEXT).setBackend(backend).setPipelined(false);
+    }
+
+    static byte[] convert(String text, ConversionOptions options) throws IOException {
+        return GifWriterUtil.toByteArray(text, options);
+    }
+}
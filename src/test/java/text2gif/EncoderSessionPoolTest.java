@@ -0,0 +1,123 @@
+package text2gif;
+
+import org.junit.Test;
+
+import javax.imageio.ImageTypeSpecifier;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Pool must reuse sessions of the same kind and keep idle sessions within its limits.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+public class EncoderSessionPoolTest {
+    @Test
+    public void reusesSessionOfSameKind() throws IOException {
+        EncoderSessionPool pool = new EncoderSessionPool(2);
+        ImageTypeSpecifier type = type(Color.BLACK);
+        EncoderSessionPool.Session first = pool.acquire(type, true);
+        EncoderSessionPool.Session second = pool.acquire(type, true);
+        EncoderSessionPool.Session third = pool.acquire(type, true);
+        pool.release(first);
+        pool.release(second);
+        // Third session is over the limit of kind
+        pool.release(third);
+        assertEquals(2, pool.getIdle());
+        assertSame(second, pool.acquire(type(Color.BLACK), true));
+        // Other loop setting is other kind
+        pool.acquire(type, false);
+        assertEquals(4, pool.getCreated());
+        assertEquals(1, pool.getReused());
+        pool.setMaxIdle(0);
+        assertEquals(0, pool.getIdle());
+    }
+
+    @Test
+    public void dropsLeastRecentlyUsedKinds() throws IOException {
+        EncoderSessionPool pool = new EncoderSessionPool(2);
+        for (int i = 0; i < 100; i++) {
+            ImageTypeSpecifier type = type(new Color(i));
+            EncoderSessionPool.Session first = pool.acquire(type, true);
+            EncoderSessionPool.Session second = pool.acquire(type, true);
+            pool.release(first);
+            pool.release(second);
+        }
+        // Sessions of 64 most recently used kinds are kept
+        assertEquals(2 * 64, pool.getIdle());
+        pool.acquire(type(new Color(99)), true);
+        pool.acquire(type(new Color(0)), true);
+        assertEquals(201, pool.getCreated());
+    }
+
+    @Test
+    public void failedSequenceIsNotPooled() throws IOException {
+        // Colors differ from other tests, so no idle session of this kind is taken
+        RenderContext context = new RenderContext(TextUtil.FONT_NAME, TextUtil.FONT_STYLE, 12, Color.ORANGE,
+                Color.WHITE, FrameFormat.INDEXED);
+        BufferedImage frame = context.createFrame();
+        context.paint('a', frame);
+        int idle = EncoderSessionPool.SHARED.getIdle();
+        // Output fails while frame is written
+        GifSequenceWriter writer = new GifSequenceWriter(new FailingOutputStream(1000),
+                context.getImageTypeSpecifier(), 100, true, GifSequenceWriter.Backend.IMAGEIO);
+        try {
+            for (int i = 0; i < 1000; i++) {
+                writer.writeToSequence(frame, i, 100);
+            }
+            fail("Output error must be thrown");
+        } catch (IOException ignored) {
+            // ImageIO wraps error of output
+        }
+        writer.close();
+        assertEquals(idle, EncoderSessionPool.SHARED.getIdle());
+        // Output fails while sequence is finished
+        FailingOutputStream output = new FailingOutputStream(Long.MAX_VALUE);
+        writer = new GifSequenceWriter(output, context.getImageTypeSpecifier(), 100, true,
+                GifSequenceWriter.Backend.IMAGEIO);
+        writer.writeToSequence(frame, 0, 100);
+        output.limit = 0;
+        try {
+            writer.close();
+            fail("Output error must be thrown");
+        } catch (IOException x) {
+            assertEquals("Disk full", x.getMessage());
+        }
+        assertEquals(idle, EncoderSessionPool.SHARED.getIdle());
+        // Session is given up once
+        writer.close();
+        assertEquals(idle, EncoderSessionPool.SHARED.getIdle());
+    }
+
+    /**
+     * Stream failing after given number of bytes.
+     */
+    private static final class FailingOutputStream extends OutputStream {
+        long limit;
+        private long written;
+
+        FailingOutputStream(long limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (++written > limit) {
+                throw new IOException("Disk full");
+            }
+        }
+    }
+
+    /**
+     * Returns type of indexed frames, palettes of different colors are different kinds.
+     */
+    private static ImageTypeSpecifier type(Color foreground) {
+        return new RenderContext(TextUtil.FONT_NAME, TextUtil.FONT_STYLE, 12, foreground, Color.WHITE,
+                FrameFormat.INDEXED).getImageTypeSpecifier();
+    }
+}
@@ -0,0 +1,79 @@
+package text2gif;
+
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Tests of font fallback chains.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+public class FontCoverageTest {
+    @Test
+    public void parsesChain() {
+        assertArrayEquals(new String[]{"DejaVu Sans Mono", "DejaVu Sans"},
+                FontCoverage.parse(" DejaVu Sans Mono ,, DejaVu Sans , "));
+        assertArrayEquals(new String[]{"Serif"}, FontCoverage.parse("Serif"));
+        // Name without fonts is kept as it is
+        assertArrayEquals(new String[]{" , "}, FontCoverage.parse(" , "));
+    }
+
+    @Test
+    public void singleFontIsNotIndexed() {
+        FontCoverage coverage = FontCoverage.get(TextUtil.FONT_NAME, Font.PLAIN);
+        assertEquals(1, coverage.getFontCount());
+        assertEquals(0, coverage.getFontIndex('A'));
+        assertEquals(0, coverage.getFontIndex(0x1F600));
+        assertEquals(0, coverage.getBuiltPages());
+    }
+
+    @Test
+    public void chainCoveredByFirstFontMatchesFirstFont() throws IOException {
+        RenderContext chain = new RenderContext(TextUtil.FONT_NAME + ", Serif", TextUtil.FONT_STYLE, 12,
+                Color.BLACK, Color.WHITE, FrameFormat.INDEXED);
+        String text = "The quick brown fox jumps over the lazy dog 0123456789 (){}[];";
+        for (Segmentation segmentation : new Segmentation[]{Segmentation.LETTER, Segmentation.WORD}) {
+            ConversionOptions options = ConversionTest.options(GifSequenceWriter.Backend.NATIVE)
+                    .setSegmentation(segmentation);
+            assertArrayEquals(segmentation.toString(), ConversionTest.convert(text, options),
+                    ConversionTest.convert(text, options.setRenderContext(chain)));
+        }
+    }
+
+    @Test
+    public void missingLetterIsTakenFromNextFont() {
+        Font first = new Font("DejaVu Sans Mono", Font.PLAIN, 12);
+        Font second = new Font("DejaVu Sans", Font.PLAIN, 12);
+        assumeTrue(first.getFamily().equals("DejaVu Sans Mono") && second.getFamily().equals("DejaVu Sans"));
+        // Letter missing in the first font only
+        int letter = -1;
+        for (int c = ' '; c < 0x3000 && letter < 0; c++) {
+            if (!first.canDisplay(c) && second.canDisplay(c)) {
+                letter = c;
+            }
+        }
+        assumeTrue(letter >= 0);
+        FontCoverage coverage = FontCoverage.get("DejaVu Sans Mono, DejaVu Sans", Font.PLAIN);
+        assertEquals(0, coverage.getFontIndex('A'));
+        assertEquals(1, coverage.getFontIndex(letter));
+        assertTrue(coverage.getBuiltPages() > 0);
+        // Letter is painted with the second font instead of the box of the first one
+        assertFalse(Arrays.equals(pixels("DejaVu Sans Mono", letter),
+                pixels("DejaVu Sans Mono, DejaVu Sans", letter)));
+        assertArrayEquals(pixels("DejaVu Sans Mono", 'A'), pixels("DejaVu Sans Mono, DejaVu Sans", 'A'));
+    }
+
+    private static int[] pixels(String fontNames, int codePoint) {
+        RenderContext context = new RenderContext(fontNames, Font.PLAIN, 12, Color.BLACK, Color.WHITE,
+                FrameFormat.ARGB);
+        BufferedImage frame = context.createFrame();
+        context.paint(codePoint, frame);
+        return frame.getRGB(0, 0, frame.getWidth(), frame.getHeight(), null, 0, frame.getWidth());
+    }
+}
@@ -0,0 +1,217 @@
+package text2gif;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round trips of built-in encoder through ImageIO GIF reader.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+public class GifEncoderTest {
+    private final Random random = new Random(42);
+
+    @Test
+    public void twoColors() throws IOException {
+        roundTrip(2, 64, 48);
+    }
+
+    @Test
+    public void sixteenColors() throws IOException {
+        roundTrip(16, 64, 48);
+    }
+
+    @Test
+    public void fullPalette() throws IOException {
+        roundTrip(256, 64, 48);
+    }
+
+    @Test
+    public void tableFullOfCodes() throws IOException {
+        // Random pixels fill the 4096-entry code table many times, so clear codes are written
+        roundTrip(256, 300, 200);
+        roundTrip(2, 600, 400);
+    }
+
+    @Test
+    public void localColorTable() throws IOException {
+        BufferedImage image = new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB);
+        int[] colors = new int[200];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = random.nextInt(0x1000000);
+        }
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, colors[random.nextInt(colors.length)]);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GifEncoder encoder = new GifEncoder(out, null, 0);
+        encoder.writeFrame(image, 100);
+        encoder.finish();
+        List<BufferedImage> frames = readFrames(out.toByteArray(), null);
+        assertEquals(1, frames.size());
+        assertPixels(image, frames.get(0));
+    }
+
+    @Test
+    public void longDelayIsSplit() throws IOException {
+        IndexColorModel palette = palette(16);
+        BufferedImage image = randomImage(palette, 20, 10);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GifEncoder encoder = new GifEncoder(out, palette, 0);
+        encoder.writeFrame(image, 2 * GifEncoder.MAX_DELAY_MS + 1230);
+        // Cached block is split the same way
+        encoder.writeFrame(image, GifEncoder.MAX_DELAY_MS + 10, "key");
+        encoder.writeFrame(image, GifEncoder.MAX_DELAY_MS + 20, "key");
+        encoder.finish();
+        List<Integer> delays = new ArrayList<>();
+        List<BufferedImage> frames = readFrames(out.toByteArray(), delays);
+        assertEquals(7, frames.size());
+        assertEquals(Arrays.asList(0xFFFF, 0xFFFF, 123, 0xFFFF, 1, 0xFFFF, 2), delays);
+        for (BufferedImage frame : frames) {
+            assertPixels(image, frame);
+        }
+    }
+
+    @Test
+    public void cachedBlocksMatchEncodedFrames() throws IOException {
+        IndexColorModel palette = palette(16);
+        BufferedImage[] images = new BufferedImage[5];
+        for (int i = 0; i < images.length; i++) {
+            images[i] = randomImage(palette, 24, 24);
+        }
+        int[] sequence = new int[200];
+        for (int i = 0; i < sequence.length; i++) {
+            sequence[i] = random.nextInt(images.length);
+        }
+        byte[] expected = writeKeyed(palette, images, sequence, 0, false);
+        // Every capacity, including ones evicting blocks, writes the same bytes
+        for (int capacity : new int[]{1, 3, GifEncoder.DEFAULT_BLOCK_CACHE_CAPACITY}) {
+            assertArrayEquals(expected, writeKeyed(palette, images, sequence, capacity, false));
+        }
+        byte[] expectedDelta = writeKeyed(palette, images, sequence, 0, true);
+        for (int capacity : new int[]{1, 3, GifEncoder.DEFAULT_BLOCK_CACHE_CAPACITY}) {
+            assertArrayEquals(expectedDelta, writeKeyed(palette, images, sequence, capacity, true));
+        }
+    }
+
+    private static byte[] writeKeyed(IndexColorModel palette, BufferedImage[] images, int[] sequence,
+                                     int capacity, boolean delta) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GifEncoder encoder = new GifEncoder(out, palette, 0);
+        encoder.setDeltaFrames(delta);
+        encoder.setBlockCacheCapacity(capacity);
+        for (int i = 0; i < sequence.length; i++) {
+            // Delays vary, so cached blocks get their delay patched
+            encoder.writeFrame(images[sequence[i]], 100 * (1 + i % 3), sequence[i]);
+        }
+        encoder.finish();
+        if (capacity >= images.length * images.length) {
+            assertEquals(sequence.length, encoder.getBlockHits() + encoder.getBlockMisses());
+            assertTrue(encoder.getBlockHits() > 0);
+        }
+        return out.toByteArray();
+    }
+
+    private void roundTrip(int colors, int width, int height) throws IOException {
+        IndexColorModel palette = palette(colors);
+        List<BufferedImage> images = new ArrayList<>();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GifEncoder encoder = new GifEncoder(out, palette, 0);
+        for (int i = 0; i < 3; i++) {
+            BufferedImage image = randomImage(palette, width, height);
+            images.add(image);
+            encoder.writeFrame(image, 100);
+        }
+        encoder.finish();
+        List<BufferedImage> frames = readFrames(out.toByteArray(), null);
+        assertEquals(images.size(), frames.size());
+        for (int i = 0; i < images.size(); i++) {
+            assertPixels(images.get(i), frames.get(i));
+        }
+        // The first frame alone is read by ImageIO.read too
+        assertPixels(images.get(0), ImageIO.read(new ByteArrayInputStream(out.toByteArray())));
+    }
+
+    /**
+     * Creates palette of distinct random colors.
+     */
+    private IndexColorModel palette(int size) {
+        byte[] r = new byte[size];
+        byte[] g = new byte[size];
+        byte[] b = new byte[size];
+        Set<Integer> used = new HashSet<>();
+        for (int i = 0; i < size; i++) {
+            int rgb;
+            do {
+                rgb = random.nextInt(0x1000000);
+            } while (!used.add(rgb));
+            r[i] = (byte) (rgb >> 16);
+            g[i] = (byte) (rgb >> 8);
+            b[i] = (byte) rgb;
+        }
+        return new IndexColorModel(8, size, r, g, b);
+    }
+
+    private BufferedImage randomImage(IndexColorModel palette, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, palette);
+        byte[] pixels = new byte[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = (byte) random.nextInt(palette.getMapSize());
+        }
+        image.getRaster().setDataElements(0, 0, width, height, pixels);
+        return image;
+    }
+
+    /**
+     * Decodes all frames, adding their delays in centiseconds to delays if it isn't null.
+     */
+    static List<BufferedImage> readFrames(byte[] gif, List<Integer> delays) throws IOException {
+        ImageReader reader = ImageIO.getImageReadersBySuffix("gif").next();
+        List<BufferedImage> frames = new ArrayList<>();
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(gif))) {
+            reader.setInput(in);
+            int count = reader.getNumImages(true);
+            for (int i = 0; i < count; i++) {
+                frames.add(reader.read(i));
+                if (delays != null) {
+                    IIOMetadataNode root = (IIOMetadataNode) reader.getImageMetadata(i)
+                            .getAsTree("javax_imageio_gif_image_1.0");
+                    IIOMetadataNode control = (IIOMetadataNode) root.getElementsByTagName("GraphicControlExtension")
+                            .item(0);
+                    delays.add(Integer.parseInt(control.getAttribute("delayTime")));
+                }
+            }
+        } finally {
+            reader.dispose();
+        }
+        return frames;
+    }
+
+    static void assertPixels(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        int w = expected.getWidth();
+        int h = expected.getHeight();
+        assertArrayEquals(expected.getRGB(0, 0, w, h, null, 0, w), actual.getRGB(0, 0, w, h, null, 0, w));
+    }
+}
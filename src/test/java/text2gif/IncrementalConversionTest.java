@@ -0,0 +1,106 @@
+package text2gif;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Incremental conversion must write the same GIF as converting the edited text from scratch.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+public class IncrementalConversionTest {
+    /**
+     * Letters of edits: runs, spaces, Cyrillic letter, emoji (surrogate pair) and line break.
+     */
+    private static final String[] LETTERS = {"a", "a", "b", " ", " ", "c", "d", "Ж", "😀", "\n"};
+
+    @Test
+    public void randomEditsMatchFullConversion() throws IOException {
+        Random random = new Random(1);
+        for (int mode = 0; mode < 4; mode++) {
+            ConversionOptions options = ConversionTest.options(GifSequenceWriter.Backend.NATIVE)
+                    .setDeltaFrames((mode & 1) != 0).setCollapseRuns((mode & 2) != 0);
+            IncrementalConversion conversion = new IncrementalConversion(options);
+            StringBuilder document = new StringBuilder();
+            for (int step = 0; step < 300; step++) {
+                String message = "delta " + options.isDeltaFrames() + ", collapse " + options.isCollapseRuns()
+                        + ", step " + step;
+                if (step % 100 == 50) {
+                    // Long paste grows frame arrays
+                    insert(conversion, document, random.nextInt(document.length() + 1),
+                            ConversionTest.text(300, step));
+                }
+                for (int edits = 1 + random.nextInt(3); edits > 0; edits--) {
+                    edit(conversion, document, random);
+                }
+                // Several edits between updates move hole over kept frames
+                if (random.nextInt(3) == 0) {
+                    continue;
+                }
+                update(conversion, document, random);
+                assertEquals(message, document.length(), conversion.getLength());
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                conversion.write(output);
+                assertArrayEquals(message, ConversionTest.convert(document.toString(), options), output.toByteArray());
+            }
+            assertTrue("frame arrays must grow", conversion.getFrameCount() > 64);
+        }
+    }
+
+    /**
+     * Removes and inserts random letters at random offset, not splitting surrogate pairs.
+     */
+    private static void edit(IncrementalConversion conversion, StringBuilder document, Random random) {
+        int offset = document.length() == 0 ? 0 : random.nextInt(document.length() + 1);
+        if (offset < document.length() && Character.isLowSurrogate(document.charAt(offset))) {
+            offset--;
+        }
+        if (random.nextBoolean() && offset < document.length()) {
+            int end = Math.min(document.length(), offset + 1 + random.nextInt(4));
+            if (end < document.length() && Character.isLowSurrogate(document.charAt(end))) {
+                end++;
+            }
+            document.delete(offset, end);
+            conversion.invalidate(offset, end - offset, 0);
+        }
+        StringBuilder inserted = new StringBuilder();
+        for (int i = random.nextInt(5); i > 0; i--) {
+            inserted.append(LETTERS[random.nextInt(LETTERS.length)]);
+        }
+        insert(conversion, document, offset, inserted.toString());
+    }
+
+    private static void insert(IncrementalConversion conversion, StringBuilder document, int offset, String text) {
+        if (offset < document.length() && Character.isLowSurrogate(document.charAt(offset))) {
+            offset--;
+        }
+        if (!text.isEmpty()) {
+            document.insert(offset, text);
+            conversion.invalidate(offset, 0, text.length());
+        }
+    }
+
+    /**
+     * Updates whole hole at once or by chunks of random length, not splitting surrogate pairs.
+     */
+    private static void update(IncrementalConversion conversion, StringBuilder document, Random random) {
+        if (random.nextBoolean()) {
+            conversion.update(document);
+            return;
+        }
+        while (conversion.isDirty()) {
+            int start = conversion.getHoleStart();
+            int end = Math.min(conversion.getHoleEnd(), start + 1 + random.nextInt(8));
+            if (end < conversion.getHoleEnd() && Character.isLowSurrogate(document.charAt(end))) {
+                end++;
+            }
+            assertTrue(conversion.update(start, document.subSequence(start, end), conversion.getVersion()));
+        }
+    }
+}
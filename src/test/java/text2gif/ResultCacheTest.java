@@ -0,0 +1,51 @@
+package text2gif;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of disk part of ResultCache.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+public class ResultCacheTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void failedStoreStillWritesImage() throws IOException {
+        Path directory = folder.newFolder("cache").toPath();
+        ResultCache cache = new ResultCache(1 << 20, directory, 1 << 20);
+        // Directory replaced by file: cached files can't be written
+        Files.delete(directory);
+        Files.createFile(directory);
+        ConversionOptions options = new ConversionOptions().setRenderContext(ConversionTest.CONTEXT);
+        options.setResultCache(cache);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        GifWriterUtil.writeString("cached text", output, options);
+        options.setResultCache(null);
+        assertArrayEquals(GifWriterUtil.toByteArray("cached text", options), output.toByteArray());
+        assertEquals(1, cache.getStoreFailures());
+        // Image is still served from memory
+        assertArrayEquals(output.toByteArray(), cache.get(ResultCache.key("cached text", options)));
+    }
+
+    @Test
+    public void onlyStaleTemporaryFilesAreDeleted() throws IOException {
+        Path directory = folder.newFolder("cache").toPath();
+        Path fresh = Files.createFile(directory.resolve("fresh.tmp"));
+        Path stale = Files.createFile(directory.resolve("stale.tmp"));
+        Files.setLastModifiedTime(stale, FileTime.fromMillis(System.currentTimeMillis() - 60 * 60 * 1000));
+        new ResultCache(1 << 20, directory, 1 << 20);
+        assertTrue(Files.exists(fresh));
+        assertFalse(Files.exists(stale));
+    }
+}
@@ -0,0 +1,53 @@
+package text2gif;
+
+import org.junit.Test;
+
+import java.awt.*;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Segments of letters must fit their frames.
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+public class SegmentedConversionTest {
+    /**
+     * Letters of default size, wide letters of proportional fonts are wider than the advance of 'M'.
+     */
+    private static final RenderContext CONTEXT = new RenderContext(TextUtil.FONT_NAME, TextUtil.FONT_STYLE,
+            TextUtil.FONT_SIZE, Color.BLACK, Color.WHITE, FrameFormat.INDEXED);
+
+    @Test
+    public void wideLettersFit() throws IOException {
+        int width = CONTEXT.getSegmentWidth(ConversionOptions.DEFAULT_SEGMENT_LENGTH);
+        for (String letter : new String[]{"W", "Щ", "m", "i"}) {
+            String word = repeat(letter, ConversionOptions.DEFAULT_SEGMENT_LENGTH);
+            for (Segmentation segmentation : new Segmentation[]{Segmentation.WORD, Segmentation.FIXED}) {
+                String message = letter + " " + segmentation;
+                List<ConversionTest.Shown> shown = ConversionTest.timeline(GifWriterUtil.toByteArray(word,
+                        ConversionTest.options(GifSequenceWriter.Backend.NATIVE).setRenderContext(CONTEXT)
+                                .setSegmentation(segmentation)));
+                // Segment is cut only if it is wider than frame
+                boolean cut = CONTEXT.getWidth(word) > width;
+                assertEquals(message, cut, shown.size() > 1);
+                for (ConversionTest.Shown screen : shown) {
+                    // Letters of clipped segment reach edges of frame
+                    for (int y = 0; y < screen.rgb.length / width; y++) {
+                        assertEquals(message, Color.WHITE.getRGB(), screen.rgb[y * width]);
+                        assertEquals(message, Color.WHITE.getRGB(), screen.rgb[y * width + width - 1]);
+                    }
+                }
+            }
+        }
+    }
+
+    private static String repeat(String letter, int count) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            result.append(letter);
+        }
+        return result.toString();
+    }
+}
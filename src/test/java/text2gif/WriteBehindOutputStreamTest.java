@@ -0,0 +1,70 @@
+package text2gif;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Leonid Pilyugin (l.pilyugin04@gmail.com)
+ */
+public class WriteBehindOutputStreamTest {
+    @Test
+    public void writesAllBytes() throws IOException {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        byte[] data = new byte[100000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        try (WriteBehindOutputStream out = new WriteBehindOutputStream(Channels.newChannel(target), 1000, 3,
+                WriteBehindOutputStream.Sync.NONE)) {
+            out.write(data, 0, 777);
+            out.write(data[777]);
+            out.write(data, 778, data.length - 778);
+        }
+        assertArrayEquals(data, target.toByteArray());
+    }
+
+    @Test(timeout = 10000)
+    public void errorOfChannelIsThrownInsteadOfBlocking() throws IOException {
+        WritableByteChannel channel = new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) {
+                throw new OutOfMemoryError("test");
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        WriteBehindOutputStream out = new WriteBehindOutputStream(channel, 16, 2,
+                WriteBehindOutputStream.Sync.NONE);
+        try {
+            // Many more bytes than buffers: writing thread keeps getting buffers back
+            for (int i = 0; i < 1000; i++) {
+                out.write(new byte[16]);
+            }
+            out.flush();
+            fail("Failure of writer thread must be thrown");
+        } catch (IOException e) {
+            assertTrue(e.getCause().getCause() instanceof OutOfMemoryError);
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            // Failure is thrown again
+        }
+    }
+}